@@ -0,0 +1,84 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Fixed length control field like 006, 007 or 008. The field starts with the fill pattern, the configured positions are overwritten with the values
+ * of the record. Values that are longer than their slot are cut, shorter values keep the fill pattern in the remaining positions.
+ */
+@Data
+public class MarcControlFieldDefinition {
+
+    private final String tag;
+
+    private final char[] template;
+
+    private final List<MarcControlFieldPosition> positions;
+
+    /**
+     * Create a new definition
+     *
+     * @param tag main tag of the control field
+     * @param length number of positions of the control field
+     * @param fill fill pattern, a single character is repeated for all positions, a longer pattern is cut or padded with blanks
+     * @param positions positions to fill with values of the record
+     */
+    public MarcControlFieldDefinition(String tag, int length, String fill, List<MarcControlFieldPosition> positions) {
+        this.tag = tag;
+        this.positions = positions;
+        template = new char[length];
+        if (fill.length() == 1) {
+            Arrays.fill(template, fill.charAt(0));
+        } else {
+            Arrays.fill(template, ' ');
+            fill.getChars(0, Math.min(fill.length(), length), template, 0);
+        }
+    }
+
+    /**
+     * Create a new buffer for a record, it contains the fill pattern
+     *
+     * @return buffer with the length of the control field
+     */
+    public char[] createBuffer() {
+        return template.clone();
+    }
+
+    /**
+     * Write a value into the slot of a position
+     *
+     * @param buffer buffer of the record
+     * @param position slot to fill
+     * @param value value to write, it is cut at the end of the slot
+     */
+    public void fill(char[] buffer, MarcControlFieldPosition position, String value) {
+        int start = position.getStart();
+        if (value == null || start >= buffer.length) {
+            return;
+        }
+        int length = Math.min(Math.min(position.getLength(), value.length()), buffer.length - start);
+        value.getChars(0, length, buffer, start);
+    }
+}
@@ -37,4 +37,6 @@ public class MarcDocstructField {
     private String dependencyType; // anchor | child
     private String dependencyMetadata; // name of the metadata to check
     private String dependencyValue; // value of the metadata to check
+
+    private boolean analytic; // export as analytic record of the host docstruct
 }
@@ -0,0 +1,1236 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.output.support.XMLOutputProcessor;
+import org.jdom2.util.NamespaceStack;
+
+import de.sub.goobi.helper.Helper;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.Corporate;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataGroup;
+import ugh.dl.MetadataGroupType;
+import ugh.dl.MetadataType;
+import ugh.dl.Person;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.fileformats.mets.MetsModsImportExport;
+
+/**
+ * Maps the logical docstructs of a Fileformat to MARC records according to the marcField and doctype rules of one configuration block. The
+ * engine does not depend on a step or process, so it can be used by the step plugin as well as by tests and other integrations.
+ */
+@Log4j2
+public class MarcExportEngine {
+
+    private static final Namespace marc = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    private static final String SUBFIELD_NAME = "subfield";
+    private static final String CONTROLFIELD_NAME = "controlfield";
+
+    private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[^A-Za-z0-9]");
+
+    private static final MarcTextTemplate METADATA_DATE = MarcTextTemplate.parse("{date}", "yyyy-MM-dd");
+
+    private List<MarcMetadataField> marcFields = new ArrayList<>();
+    private List<MarcDocstructField> docstructFields = new ArrayList<>();
+    private List<MarcControlFieldDefinition> controlFieldDefinitions = new ArrayList<>();
+    private Set<String> fixedLengthTags = new HashSet<>(); // tags of the controlField definitions
+
+    // writes the fixed length control fields without trimming, so that blank positions at their start or end are kept. Control fields of
+    // marcField rules are trimmed by the output format, like all other values
+    private final XMLOutputProcessor controlFieldProcessor = new AbstractXMLOutputProcessor() {
+        @Override
+        protected void printElement(Writer out, FormatStack fstack, NamespaceStack nstack, Element element) throws IOException {
+            if (!CONTROLFIELD_NAME.equals(element.getName()) || !fixedLengthTags.contains(element.getAttributeValue("tag"))) {
+                super.printElement(out, fstack, nstack, element);
+                return;
+            }
+            fstack.push();
+            try {
+                fstack.setTextMode(Format.TextMode.PRESERVE);
+                super.printElement(out, fstack, nstack, element);
+            } finally {
+                fstack.pop();
+            }
+        }
+    };
+
+    @Getter
+    private String name;
+
+    @Getter
+    private String exportFolder;
+
+    private String outputFormat; // marcxml (default) | marcxml-compact
+
+    private String layoutType; // process (default) | sharded
+    private int shardLevels;
+    private int shardWidth;
+
+    @Getter
+    private MarcExportIndex exportIndex; // null if no index is configured
+
+    @Getter
+    private MarcExportEventLog eventLog; // null if no event log is configured
+
+    private MarcValueNormalizer normalizer;
+
+    private NonFilingArticleTable nonFilingArticles;
+    private String languageField; // metadata that contains the language of the record
+
+    private String identifierField;
+
+    @Getter
+    private String validationMode;
+
+    private String hostLinkTag;
+    private String hostLinkInd1;
+    private String hostLinkInd2;
+    private String hostLinkSubTag;
+    private String hostLinkPrefix;
+    private String hostTitleField;
+
+    // tags of fields that are written only once per record, if several fields have the same indicators and subfields
+    private Set<String> deduplicatedTags = new HashSet<>();
+
+    /**
+     * Create a new engine
+     *
+     * @param config configuration block using the XPathExpressionEngine
+     */
+    public MarcExportEngine(HierarchicalConfiguration config) {
+        this("", config, config);
+    }
+
+    /**
+     * Create a new engine for a named export profile. The marcField and doctype rules are taken from the profile only, all other settings are
+     * inherited from the parent configuration block, if the profile does not overwrite them. A profile without its own exportFolder writes into a
+     * subfolder of the inherited folder, named after the profile.
+     *
+     * @param name name of the profile
+     * @param config configuration of the profile using the XPathExpressionEngine
+     * @param parentConfig configuration block that contains the profile
+     */
+    public MarcExportEngine(String name, HierarchicalConfiguration config, HierarchicalConfiguration parentConfig) {
+        this.name = name;
+        exportFolder = getSetting(config, parentConfig, "/exportFolder", "");
+        if (config != parentConfig && StringUtils.isNotBlank(name) && StringUtils.isNotBlank(exportFolder)
+                && StringUtils.isBlank(config.getString("/exportFolder", null))) {
+            // profiles are exported in parallel and must not overwrite the files of each other
+            exportFolder = Paths.get(exportFolder, name).toString();
+        }
+        // a missing folder stays empty instead of becoming the root folder, the step refuses to export then
+        if (StringUtils.isNotBlank(exportFolder) && !exportFolder.endsWith("/")) {
+            exportFolder = exportFolder + "/";
+        }
+
+        outputFormat = getSetting(config, parentConfig, "/outputFormat", "marcxml");
+
+        layoutType = getSetting(config, parentConfig, "/exportLayout/@type", "process");
+        shardLevels = Integer.parseInt(getSetting(config, parentConfig, "/exportLayout/@levels", "2"));
+        shardWidth = Integer.parseInt(getSetting(config, parentConfig, "/exportLayout/@width", "2"));
+        String indexFile = getSetting(config, parentConfig, "/exportIndex/@file", "");
+        if (StringUtils.isNotBlank(indexFile)) {
+            exportIndex = new MarcExportIndex(Paths.get(exportFolder).resolve(indexFile));
+        }
+
+        identifierField = getSetting(config, parentConfig, "/identifierField", "CatalogIDDigital");
+
+        validationMode = getSetting(config, parentConfig, "/validationMode", MarcRecordValidator.MODE_NONE);
+
+        normalizer = new MarcValueNormalizer(getSetting(config, parentConfig, "/normalization/@form", "none"),
+                Boolean.parseBoolean(getSetting(config, parentConfig, "/normalization/@stripControlCharacters", "false")),
+                Integer.parseInt(getSetting(config, parentConfig, "/normalization/@maxLength", "0")));
+
+        hostLinkTag = getSetting(config, parentConfig, "/analyticRecords/@tag", "773");
+        hostLinkInd1 = getSetting(config, parentConfig, "/analyticRecords/@ind1", "0").replace("_", " ");
+        hostLinkInd2 = getSetting(config, parentConfig, "/analyticRecords/@ind2", "8").replace("_", " ");
+        hostLinkSubTag = getSetting(config, parentConfig, "/analyticRecords/@subTag", "w");
+        hostLinkPrefix = getSetting(config, parentConfig, "/analyticRecords/@prefix", "");
+        hostTitleField = getSetting(config, parentConfig, "/analyticRecords/@titleField", "TitleDocMain");
+
+        for (String tag : getSetting(config, parentConfig, "/deduplication/@tags", "").split("[\\s,]+")) {
+            if (StringUtils.isNotBlank(tag)) {
+                deduplicatedTags.add(tag);
+            }
+        }
+        Set<String> notDeduplicatedTags = new HashSet<>();
+
+        List<HierarchicalConfiguration> hcl = config.configurationsAt("/marcField");
+        for (HierarchicalConfiguration hc : hcl) {
+            String type = hc.getString("@type", "datafield");
+            String mainTag = hc.getString("@mainTag");
+            String ind1 = hc.getString("@ind1").replace("_", " ");
+            String ind2 = hc.getString("@ind2").replace("_", " ");
+            String subTag = hc.getString("@subTag");
+            String repetitionMode = hc.getString("@reuseMode", "none");
+            String rulesetName = hc.getString("@rulesetName");
+            String additionalSubFieldCode = hc.getString("@additionalSubFieldCode");
+            String additionalSubFieldValue = hc.getString("@additionalSubFieldValue");
+            boolean anchorMetadata = hc.getBoolean("@anchorMetadata", false);
+            String conditionField = hc.getString("@conditionField", null);
+            String conditionValue = hc.getString("@conditionValue", null);
+            String conditionType = hc.getString("@conditionType", "is");
+            String text = hc.getString("@text", "");
+            String wrapperLeft = hc.getString("@wrapperLeft", null);
+            String wrapperRight = hc.getString("@wrapperRight", null);
+            String patternTemplate = hc.getString("@patternTemplate", "");
+            String patternTarget = hc.getString("@patternTarget", "");
+            String mergeSeparator = hc.getString("@mergeSeparator", null);
+            String regularExpression = hc.getString("@regularExpression", null);
+            String deduplicate = hc.getString("@deduplicate", null);
+            if ("true".equalsIgnoreCase(deduplicate)) {
+                deduplicatedTags.add(mainTag);
+            } else if ("false".equalsIgnoreCase(deduplicate)) {
+                notDeduplicatedTags.add(mainTag);
+            }
+
+            Map<String, String> replacements = new HashMap<>();
+
+            List<HierarchicalConfiguration> sublist = hc.configurationsAt("/replacement");
+            for (HierarchicalConfiguration sub : sublist) {
+                replacements.put(sub.getString("@oldValue"), sub.getString("@newValue"));
+            }
+
+            MarcMetadataField mmf = new MarcMetadataField(type, mainTag, ind1, ind2, subTag, repetitionMode, rulesetName, additionalSubFieldCode,
+                    additionalSubFieldValue, anchorMetadata, conditionField, conditionValue, conditionType, text,
+                    MarcTextTemplate.parse(text, "yyyy-MM-dd"), wrapperLeft, wrapperRight,
+                    patternTemplate, patternTarget, mergeSeparator, regularExpression, replacements);
+            marcFields.add(mmf);
+        }
+        // an explicit deduplicate="false" on a rule wins over the global tag list
+        deduplicatedTags.removeAll(notDeduplicatedTags);
+
+        hcl = config.configurationsAt("/doctype");
+        for (HierarchicalConfiguration hc : hcl) {
+            boolean exportDocstruct = hc.getBoolean("@export");
+            String docstructName = hc.getString("@rulesetName");
+            String leader6 = hc.getString("@leader6");
+            String leader7 = hc.getString("@leader7");
+            String leader19 = hc.getString("@leader19");
+            String dependencyType = hc.getString("@dependencyType");
+            String dependencyMetadata = hc.getString("@dependencyMetadata");
+            String dependencyValue = hc.getString("@dependencyValue");
+            boolean analytic = hc.getBoolean("@analytic", false);
+            docstructFields.add(new MarcDocstructField(exportDocstruct, docstructName, leader6, leader7, leader19, dependencyType, dependencyMetadata,
+                    dependencyValue, analytic));
+        }
+
+        List<HierarchicalConfiguration> articleConfigs = config.configurationsAt("/nonFilingArticles");
+        if (articleConfigs.isEmpty()) {
+            articleConfigs = parentConfig.configurationsAt("/nonFilingArticles");
+        }
+        if (articleConfigs.isEmpty()) {
+            nonFilingArticles = NonFilingArticleTable.createDefault();
+            languageField = null;
+        } else {
+            HierarchicalConfiguration articleConfig = articleConfigs.get(0);
+            nonFilingArticles = new NonFilingArticleTable(articleConfig.getBoolean("@ignoreCase", true));
+            languageField = articleConfig.getString("@languageField", "DocLanguage");
+            for (String article : articleConfig.getStringArray("/article")) {
+                nonFilingArticles.addArticle(null, article);
+            }
+            for (HierarchicalConfiguration languageConfig : articleConfig.configurationsAt("/language")) {
+                String language = languageConfig.getString("@code");
+                for (String article : languageConfig.getStringArray("/article")) {
+                    nonFilingArticles.addArticle(language, article);
+                }
+            }
+        }
+
+        hcl = config.configurationsAt("/controlField");
+        for (HierarchicalConfiguration hc : hcl) {
+            String tag = hc.getString("@tag");
+            int length = hc.getInt("@length", 40);
+            String fill = hc.getString("@fill", " ").replace("_", " ");
+            List<MarcControlFieldPosition> positions = new ArrayList<>();
+            for (HierarchicalConfiguration sub : hc.configurationsAt("/position")) {
+                int start = sub.getInt("@start");
+                int positionLength = sub.getInt("@length", 1);
+                String rulesetName = sub.getString("@rulesetName", null);
+                boolean anchorMetadata = sub.getBoolean("@anchorMetadata", false);
+                String text = sub.getString("@text", "").replace("_", " ");
+                // {date} uses @dateFormat, the other tokens are the same as in marcField texts
+                MarcTextTemplate template = MarcTextTemplate.parse(text, sub.getString("@dateFormat", "yyMMdd"));
+                positions.add(new MarcControlFieldPosition(start, positionLength, rulesetName, anchorMetadata, template));
+            }
+            controlFieldDefinitions.add(new MarcControlFieldDefinition(tag, length, StringUtils.isEmpty(fill) ? " " : fill, positions));
+        }
+        // a fixed length control field replaces all marcField rules for the same tag
+        for (MarcControlFieldDefinition definition : controlFieldDefinitions) {
+            fixedLengthTags.add(definition.getTag());
+            marcFields.removeIf(field -> CONTROLFIELD_NAME.equals(field.getFieldType()) && definition.getTag().equals(field.getMarcMainTag()));
+        }
+
+        String eventLogFile = getSetting(config, parentConfig, "/eventLog/@file", "");
+        if (StringUtils.isNotBlank(eventLogFile)) {
+            List<String> ruleLabels = new ArrayList<>();
+            for (int i = 0; i < marcFields.size(); i++) {
+                MarcMetadataField field = marcFields.get(i);
+                ruleLabels.add("#" + (i + 1) + " " + field.getMarcMainTag() + " "
+                        + (field.getRulesetName() == null ? "text=" + field.getStaticText() : field.getRulesetName()));
+            }
+            eventLog = new MarcExportEventLog(Paths.get(exportFolder).resolve(eventLogFile),
+                    Long.parseLong(getSetting(config, parentConfig, "/eventLog/@slowRecordThreshold", "1000")),
+                    Integer.parseInt(getSetting(config, parentConfig, "/eventLog/@slowRecordRules", "5")), ruleLabels);
+        }
+    }
+
+    /**
+     * Create the MARC records of all exportable docstructs of the given Fileformat
+     *
+     * @param fileformat the loaded METS file
+     * @param prefs the ruleset of the process
+     * @param validator validator used to check each record, can be null
+     * @return list of generated records, or null if the records could not be created
+     */
+    public List<MarcRecord> createRecords(Fileformat fileformat, Prefs prefs, MarcRecordValidator validator) {
+        return createRecords(fileformat, prefs, validator, new MetadataIndex());
+    }
+
+    /**
+     * Create the MARC records of all exportable docstructs of the given Fileformat, using an index that can be shared with other engines
+     *
+     * @param fileformat the loaded METS file
+     * @param prefs the ruleset of the process
+     * @param validator validator used to check each record, can be null
+     * @param metadataIndex index of the metadata of the docstructs of the Fileformat
+     * @return list of generated records, or null if the records could not be created
+     */
+    public List<MarcRecord> createRecords(Fileformat fileformat, Prefs prefs, MarcRecordValidator validator, MetadataIndex metadataIndex) {
+        return createRecords(fileformat, prefs, validator, metadataIndex, new MarcRecordContext(null, null, ZonedDateTime.now()));
+    }
+
+    /**
+     * Create the MARC records of all exportable docstructs of the given Fileformat, using an index that can be shared with other engines
+     *
+     * @param fileformat the loaded METS file
+     * @param prefs the ruleset of the process
+     * @param validator validator used to check each record, can be null
+     * @param metadataIndex index of the metadata of the docstructs of the Fileformat
+     * @param processContext process data and export time used for the tokens of static texts
+     * @return list of generated records, or null if the records could not be created
+     */
+    public List<MarcRecord> createRecords(Fileformat fileformat, Prefs prefs, MarcRecordValidator validator, MetadataIndex metadataIndex,
+            MarcRecordContext processContext) {
+        List<DocStruct> docstructList = prepareDocStructList(fileformat);
+        if (docstructList == null) {
+            // error happened
+            return null; // NOSONAR
+        }
+
+        List<MarcRecord> records = new ArrayList<>();
+        // the types of the configured rules are resolved only once per ruleset
+        MarcExportRulesetCache.Ruleset ruleset = MarcExportRulesetCache.getRuleset(prefs);
+
+        // the first exported non-anchor docstruct is the host of all analytic records
+        DocStruct host = null;
+        String hostIdentifier = null;
+
+        for (DocStruct docstruct : docstructList) {
+            // 1. get identifier
+            String identifier = getIdentifierOfDocStruct(docstruct, metadataIndex);
+
+            // 2. get currentField
+            MarcDocstructField currentField = getCurrentMarcField(docstruct);
+
+            // 3. check if exportable
+            boolean exportable = isDocStructExportable(docstruct, identifier, currentField, metadataIndex);
+
+            // 4. use results from 1, 2, 3 to control whether to go further, hence 1 - 4 are just preparation steps
+            if (!exportable) {
+                log.debug("docstruct is not exportable");
+                continue;
+            }
+
+            // 5. prepare the MARC document
+            long start = System.nanoTime();
+            long[] ruleTimes = eventLog == null ? null : new long[marcFields.size()];
+            Document marcDoc = createMarcDocument(docstruct, currentField, ruleset, metadataIndex, processContext.forRecord(identifier), ruleTimes);
+            records.add(createMarcRecord(identifier, docstruct, marcDoc, start, validator, ruleTimes));
+            // analytic records may only link to a record that was actually created
+            if (host == null && !docstruct.getType().isAnchor()) {
+                host = docstruct;
+                hostIdentifier = identifier;
+            }
+        }
+
+        // 6. create analytic records of structural children, all linked to the same host
+        if (host != null && StringUtils.isNotBlank(hostIdentifier) && hasAnalyticDoctypes()) {
+            List<DocStruct> analyticList = new ArrayList<>();
+            collectAnalyticDocStructs(host, analyticList);
+
+            // host data is the same for all children, so it is computed only once
+            Element hostLinkField = createHostLinkField(host, hostIdentifier, metadataIndex);
+            int counter = 0;
+            for (DocStruct child : analyticList) {
+                counter++;
+                MarcDocstructField currentField = getCurrentMarcField(child);
+                if (currentField == null || !currentField.isExportDocstruct() || !isFieldDependencyFulfilled(child, currentField, metadataIndex)) {
+                    log.debug("analytic docstruct is not exportable");
+                    continue;
+                }
+                String identifier = getIdentifierOfDocStruct(child, metadataIndex);
+                if (StringUtils.isBlank(identifier)) {
+                    identifier = hostIdentifier + "_" + String.format("%04d", counter);
+                }
+
+                long start = System.nanoTime();
+                long[] ruleTimes = eventLog == null ? null : new long[marcFields.size()];
+                Document marcDoc = createMarcDocument(child, currentField, ruleset, metadataIndex, processContext.forRecord(identifier), ruleTimes);
+                addFieldInTagOrder(marcDoc.getRootElement(), hostLinkField.clone());
+                records.add(createMarcRecord(identifier, child, marcDoc, start, validator, ruleTimes));
+            }
+        }
+
+        // records with the same identifier would overwrite each other in the export folder, in the index and in the map of exportRecords
+        Set<String> identifiers = new HashSet<>();
+        for (MarcRecord marcRecord : records) {
+            if (!identifiers.add(marcRecord.getIdentifier())) {
+                log.error("Several MARC records of the process have the identifier " + marcRecord.getIdentifier());
+                return null; // NOSONAR
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Serialize a MARC record as MARCXML
+     *
+     * @param marcRecord record to write
+     * @param out stream to write into, it is not closed
+     * @throws IOException
+     */
+    public void writeRecord(MarcRecord marcRecord, OutputStream out) throws IOException {
+        XMLOutputter outputter = new XMLOutputter(getXmlFormat(), controlFieldProcessor);
+        outputter.output(marcRecord.getDocument(), out);
+    }
+
+    private Format getXmlFormat() {
+        if ("marcxml-compact".equals(outputFormat)) {
+            // the default text mode of the compact format (NORMALIZE) would collapse the blanks inside of values like 008
+            return Format.getCompactFormat().setTextMode(Format.TextMode.TRIM);
+        }
+        return Format.getPrettyFormat();
+    }
+
+    /**
+     * Create and serialize the MARC records of an already loaded METS file without writing them into the export folder. This allows other steps or
+     * scripts that have the Fileformat in memory to get the MARC output without parsing meta.xml again. Invalid records are handled according to
+     * the validation mode: they are omitted in mode skip and let the export fail in mode fail. The export fails as well if several records of the
+     * process get the same identifier, so no record can replace another one in the result.
+     *
+     * @param fileformat the loaded METS file
+     * @param prefs the ruleset of the process
+     * @return serialized records by identifier in export order, or null if the records could not be created
+     * @throws IOException if a record cannot be serialized
+     */
+    public Map<String, byte[]> exportRecords(Fileformat fileformat, Prefs prefs) throws IOException {
+        return exportRecords(fileformat, prefs, new MarcRecordContext(null, null, ZonedDateTime.now()));
+    }
+
+    /**
+     * Create and serialize the MARC records of an already loaded METS file without writing them into the export folder
+     *
+     * @param fileformat the loaded METS file
+     * @param prefs the ruleset of the process
+     * @param processContext process data and export time used for the tokens of static texts
+     * @return serialized records by identifier in export order, or null if the records could not be created
+     * @throws IOException if a record cannot be serialized
+     */
+    public Map<String, byte[]> exportRecords(Fileformat fileformat, Prefs prefs, MarcRecordContext processContext) throws IOException {
+        MarcRecordValidator validator = new MarcRecordValidator(validationMode);
+        List<MarcRecord> records = createRecords(fileformat, prefs, validator, new MetadataIndex(), processContext);
+        if (records == null) {
+            return null; // NOSONAR
+        }
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        for (MarcRecord marcRecord : records) {
+            MarcRecordValidator.Action action = validator.getAction(marcRecord);
+            if (action == MarcRecordValidator.Action.FAIL) {
+                return null; // NOSONAR
+            } else if (action == MarcRecordValidator.Action.SKIP) {
+                continue;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeRecord(marcRecord, out);
+            output.put(marcRecord.getIdentifier(), out.toByteArray());
+        }
+        return output;
+    }
+
+    /**
+     * Get the path of the file of a record, relative to the export folder. The default layout uses one folder per process. The sharded layout
+     * distributes the files over nested folders named after the first characters of the MD5 hash of the identifier.
+     *
+     * @param processId id of the process
+     * @param identifier identifier of the record
+     * @return relative path of the file
+     */
+    public String getRelativePath(String processId, String identifier) {
+        if (!"sharded".equals(layoutType)) {
+            return processId + "/" + identifier + ".xml";
+        }
+        String hash = DigestUtils.md5Hex(identifier);
+        StringBuilder path = new StringBuilder();
+        for (int level = 0; level < shardLevels && (level + 1) * shardWidth <= hash.length(); level++) {
+            path.append(hash, level * shardWidth, (level + 1) * shardWidth).append('/');
+        }
+        return path.append(identifier).append(".xml").toString();
+    }
+
+    private static String getSetting(HierarchicalConfiguration config, HierarchicalConfiguration parentConfig, String key, String defaultValue) {
+        return config.getString(key, parentConfig.getString(key, defaultValue));
+    }
+
+    private MarcRecord createMarcRecord(String identifier, DocStruct docstruct, Document marcDoc, long start, MarcRecordValidator validator,
+            long[] ruleTimes) {
+        if (normalizer.isFieldLengthLimited()) {
+            for (Element field : marcDoc.getRootElement().getChildren()) {
+                if (!"leader".equals(field.getName())) {
+                    normalizer.limitFieldLength(field);
+                }
+            }
+        }
+        MarcRecord marcRecord = new MarcRecord(identifier, docstruct.getType().getName(), marcDoc);
+        long validationStart = System.nanoTime();
+        marcRecord.setMappingTime(validationStart - start);
+        if (validator != null && validator.isEnabled()) {
+            marcRecord.setViolations(validator.validate(marcDoc.getRootElement()));
+        }
+        marcRecord.setValidationTime(System.nanoTime() - validationStart);
+        marcRecord.setMetadataCount(size(docstruct.getAllMetadata()) + size(docstruct.getAllPersons()) + size(docstruct.getAllCorporates()));
+        marcRecord.setGroupCount(size(docstruct.getAllMetadataGroups()));
+        marcRecord.setRuleTimes(ruleTimes);
+        return marcRecord;
+    }
+
+    private static int size(List<?> list) {
+        return list == null ? 0 : list.size();
+    }
+
+    private Document createMarcDocument(DocStruct docstruct, MarcDocstructField currentField, MarcExportRulesetCache.Ruleset ruleset,
+            MetadataIndex metadataIndex, MarcRecordContext context, long[] ruleTimes) {
+        Document marcDoc = new Document();
+        Element recordElement = new Element("record", marc);
+        marcDoc.setRootElement(recordElement);
+
+        Element leaderElement = new Element("leader", marc);
+        StringBuilder leader = createLeader(currentField);
+        leaderElement.setText(leader.toString());
+        recordElement.addContent(leaderElement);
+
+        Element marcField = null;
+        Metadata firstPersonOrCorporate = null;
+        // there should be ONLY ONE main entry, either Person or Corporate, but NOT both
+        boolean firstPersonOrCorporateWritten = false;
+        for (int ruleIndex = 0; ruleIndex < marcFields.size(); ruleIndex++) {
+            MarcMetadataField configuredField = marcFields.get(ruleIndex);
+            long ruleStart = ruleTimes == null ? 0 : System.nanoTime();
+            String type = configuredField.getRulesetName();
+            // condition type
+            MetadataType conditionType = null;
+            if (StringUtils.isNotBlank(configuredField.getConditionField())) {
+                conditionType = ruleset.getMetadataType(configuredField.getConditionField());
+            }
+
+            /*
+             * REMARKS ON MARC:
+             *      1. Fields beginning with a 1 are referred to as main entry fields, and there should be ONLY ONE of them in each MARC record.
+             *      1.1. Person - 100
+             *      1.2. Corporate - 110
+             * 
+             *      2. Fields beginning with a 7 are used to provide additional access to the manifestation being cataloged.
+             *      2.1. Person - 700
+             *      2.2. Corporate - 710
+             */
+            // write metadata according to actual types
+            if (type == null) {
+                // static text, not metadata
+                marcField = writeMetadataGeneral(docstruct, recordElement, marcField, configuredField, null, conditionType, metadataIndex,
+                        context);
+            } else if ("group".equals(configuredField.getReuseMode())) {
+                // metadata groups
+                MetadataGroupType mgt = ruleset.getMetadataGroupType(type);
+                // a group type that is missing in the ruleset is skipped, like the groups of an unknown type
+                List<MetadataGroup> grps = mgt == null ? Collections.emptyList() : metadataIndex.get(docstruct).getGroups(mgt.getName());
+                for (MetadataGroup grp : grps) {
+                    // generate new main field
+                    String groupName = mgt.getName() + "/";
+                    if (StringUtils.isBlank(configuredField.getMergeSeparator()) || !isMarcFieldReusable(marcField, configuredField)) {
+                        marcField = createMainElement(recordElement, configuredField);
+                    }
+                    for (MarcMetadataField field : marcFields) {
+                        if (StringUtils.isNotBlank(field.getRulesetName()) && field.getRulesetName().startsWith(groupName)
+                                && field.getMarcMainTag().equals(configuredField.getMarcMainTag())) {
+                            String metadataName = field.getRulesetName().replace(groupName, "");
+                            for (Metadata md : grp.getMetadataList()) {
+                                if (md.getType().getName().equals(metadataName)) {
+                                    marcField = writeMetadataGeneral(docstruct, recordElement, marcField, field, md, conditionType, metadataIndex,
+                                            context);
+                                }
+                            }
+                        }
+                    }
+                }
+            } else {
+                MetadataType mdt = ruleset.getMetadataType(type);
+                if (mdt != null) {
+                    List<? extends Metadata> list = getMetadataListGeneral(docstruct, configuredField, mdt, metadataIndex);
+
+                    if (list != null) {
+                        for (Metadata md : list) {
+                            // check if we should call writeMetadataGeneral, which depends on mdt
+                            int writeCode = getMetadataWriteCode(configuredField, mdt, firstPersonOrCorporate, md, firstPersonOrCorporateWritten);
+                            if (writeCode < 0) {
+                                continue;
+                            }
+
+                            marcField = writeMetadataGeneral(docstruct, recordElement, marcField, configuredField, md, conditionType,
+                                    metadataIndex, context);
+
+                            if (writeCode == 100 || writeCode == 110 || writeCode == 111 || writeCode == 130) {
+                                // first Person or first Corporate found
+                                firstPersonOrCorporate = md;
+                                firstPersonOrCorporateWritten = true;
+                            }
+                        }
+                    }
+                }
+            }
+            if (ruleTimes != null) {
+                ruleTimes[ruleIndex] = System.nanoTime() - ruleStart;
+            }
+        }
+
+        // fixed length control fields
+        for (MarcControlFieldDefinition definition : controlFieldDefinitions) {
+            addFieldInTagOrder(recordElement, createFixedLengthControlField(docstruct, definition, metadataIndex, context));
+        }
+
+        if (!deduplicatedTags.isEmpty()) {
+            removeDuplicateFields(recordElement);
+        }
+        return marcDoc;
+    }
+
+    private Element createFixedLengthControlField(DocStruct docstruct, MarcControlFieldDefinition definition, MetadataIndex metadataIndex,
+            MarcRecordContext context) {
+        char[] buffer = definition.createBuffer();
+        for (MarcControlFieldPosition position : definition.getPositions()) {
+            String value = null;
+            if (StringUtils.isNotBlank(position.getRulesetName())) {
+                DocStruct ds = position.isAnchorMetadata() ? docstruct.getParent() : docstruct;
+                if (ds != null) {
+                    List<Metadata> list = metadataIndex.get(ds).getMetadata(position.getRulesetName());
+                    if (!list.isEmpty()) {
+                        value = list.get(0).getValue();
+                    }
+                }
+            } else {
+                value = position.getText().evaluate(context);
+            }
+            definition.fill(buffer, position, value);
+        }
+
+        Element controlField = new Element(CONTROLFIELD_NAME, marc);
+        controlField.setAttribute("tag", definition.getTag());
+        controlField.setText(new String(buffer));
+        return controlField;
+    }
+
+    /**
+     * Remove all fields of the configured tags that are identical to a previous field of the record. Two fields are identical, if they have the
+     * same tag, indicators and subfields in the same order.
+     */
+    void removeDuplicateFields(Element recordElement) {
+        Set<String> fingerprints = new HashSet<>();
+        Iterator<Element> fields = recordElement.getChildren().iterator();
+        while (fields.hasNext()) {
+            Element field = fields.next();
+            String tag = field.getAttributeValue("tag");
+            if (tag != null && deduplicatedTags.contains(tag) && !fingerprints.add(getFingerprint(field))) {
+                fields.remove();
+            }
+        }
+    }
+
+    private static String getFingerprint(Element field) {
+        // the MARC delimiters cannot occur in the values, so they are used to separate the parts
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(field.getAttributeValue("tag"));
+        if (CONTROLFIELD_NAME.equals(field.getName())) {
+            return fingerprint.append('\u001e').append(field.getText()).toString();
+        }
+        fingerprint.append(field.getAttributeValue("ind1")).append(field.getAttributeValue("ind2"));
+        for (Element subfield : field.getChildren()) {
+            fingerprint.append('\u001f').append(subfield.getAttributeValue("code")).append(subfield.getText());
+        }
+        return fingerprint.toString();
+    }
+
+    private boolean hasAnalyticDoctypes() {
+        for (MarcDocstructField field : docstructFields) {
+            if (field.isAnalytic()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void collectAnalyticDocStructs(DocStruct parent, List<DocStruct> analyticList) {
+        List<DocStruct> children = parent.getAllChildren();
+        if (children == null) {
+            return;
+        }
+        for (DocStruct child : children) {
+            MarcDocstructField field = getCurrentMarcField(child);
+            if (field != null && field.isAnalytic()) {
+                analyticList.add(child);
+            }
+            collectAnalyticDocStructs(child, analyticList);
+        }
+    }
+
+    private Element createHostLinkField(DocStruct host, String hostIdentifier, MetadataIndex metadataIndex) {
+        Element hostLinkField = new Element("datafield", marc);
+        hostLinkField.setAttribute("tag", hostLinkTag);
+        hostLinkField.setAttribute("ind1", hostLinkInd1);
+        hostLinkField.setAttribute("ind2", hostLinkInd2);
+
+        if (StringUtils.isNotBlank(hostTitleField)) {
+            List<Metadata> titles = metadataIndex.get(host).getMetadata(hostTitleField);
+            if (!titles.isEmpty()) {
+                Element title = new Element(SUBFIELD_NAME, marc);
+                title.setAttribute("code", "t");
+                title.setText(normalizer.normalize(titles.get(0).getValue()));
+                hostLinkField.addContent(title);
+            }
+        }
+
+        Element link = new Element(SUBFIELD_NAME, marc);
+        link.setAttribute("code", hostLinkSubTag);
+        link.setText(hostLinkPrefix + hostIdentifier);
+        hostLinkField.addContent(link);
+        return hostLinkField;
+    }
+
+    private void addFieldInTagOrder(Element recordElement, Element field) {
+        String tag = field.getAttributeValue("tag");
+        List<Element> fields = recordElement.getChildren();
+        for (int i = 0; i < fields.size(); i++) {
+            String otherTag = fields.get(i).getAttributeValue("tag");
+            if (otherTag != null && otherTag.compareTo(tag) > 0) {
+                recordElement.addContent(recordElement.indexOf(fields.get(i)), field);
+                return;
+            }
+        }
+        recordElement.addContent(field);
+    }
+
+    private List<DocStruct> prepareDocStructList(Fileformat ff) {
+        try {
+            DocStruct docstruct = ff.getDigitalDocument().getLogicalDocStruct();
+
+            if (!isIdentifierExistsInDocStruct(docstruct)) {
+                Helper.setFehlerMeldung("Missing identifier metadata");
+                return null; // NOSONAR
+            }
+
+            List<DocStruct> docstructList = new ArrayList<>();
+
+            docstructList.add(docstruct);
+            if (docstruct.getType().isAnchor()) {
+                docstructList.add(docstruct.getAllChildren().get(0));
+            }
+
+            return docstructList;
+
+        } catch (PreferencesException e1) {
+            log.error(e1);
+            return null; // NOSONAR
+        }
+    }
+
+    private boolean isIdentifierExistsInDocStruct(DocStruct docstruct) {
+        for (Metadata md : docstruct.getAllMetadata()) {
+            if (md.getType().isIdentifier()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String getIdentifierOfDocStruct(DocStruct docstruct, MetadataIndex metadataIndex) {
+        String identifier = null;
+
+        List<Metadata> identifierList = metadataIndex.get(docstruct).getMetadata(identifierField);
+        if (!identifierList.isEmpty()) {
+            identifier = identifierList.get(0).getValue();
+        }
+
+        return identifier;
+    }
+
+    private MarcDocstructField getCurrentMarcField(DocStruct docstruct) {
+        String typeName = docstruct.getType().getName();
+        for (MarcDocstructField field : docstructFields) {
+            if (typeName.equals(field.getDocstructName())) {
+                return field;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isDocStructExportable(DocStruct docstruct, String identifier, MarcDocstructField currentField, MetadataIndex metadataIndex) {
+        return StringUtils.isNotBlank(identifier) && currentField != null && currentField.isExportDocstruct()
+                && isFieldDependencyFulfilled(docstruct, currentField, metadataIndex);
+    }
+
+    private boolean isFieldDependencyFulfilled(DocStruct docstruct, MarcDocstructField currentField, MetadataIndex metadataIndex) {
+        if (StringUtils.isBlank(currentField.getDependencyType())) {
+            return true;
+        }
+
+        DocStruct dsToCheck = null;
+        if (docstruct.getType().isAnchor()) {
+            if ("anchor".equals(currentField.getDependencyType())) {
+                dsToCheck = docstruct;
+            } else {
+                dsToCheck = docstruct.getAllChildren().get(0);
+            }
+        } else if ("anchor".equals(currentField.getDependencyType())) {
+            dsToCheck = docstruct.getParent();
+        } else {
+            dsToCheck = docstruct;
+        }
+
+        String dependencyType = currentField.getDependencyMetadata();
+        String dependencyValue = currentField.getDependencyValue();
+        for (Metadata md : metadataIndex.get(dsToCheck).getMetadata(dependencyType)) {
+            if (md.getValue().equals(dependencyValue)) {
+                // metadata found and its value matches
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int getMetadataWriteCode(MarcMetadataField configuredField, MetadataType mdt, Metadata firstMetadata, Metadata currentMetadata,
+            boolean firstPersonOrCorporateWritten) {
+        String marcMainTag = configuredField.getMarcMainTag();
+        switch (marcMainTag) {
+            case "100":
+            case "110":
+            case "111":
+            case "130":
+            case "700":
+            case "710":
+            case "711":
+            case "730":
+                if (firstPersonOrCorporateWritten) {
+                    boolean sameFirst = firstMetadata != null;
+                    if (mdt.getIsPerson()) {
+                        sameFirst = sameFirst && firstMetadata instanceof Person && ((Person) firstMetadata).equals((Person) currentMetadata);
+                    } else if (mdt.isCorporate()) {
+                        sameFirst = sameFirst && firstMetadata instanceof Corporate && ((Corporate) firstMetadata).equals(currentMetadata);
+                    }
+                    // -1 means that this Metadata should not be written
+                    // 710 means that this is an additional Corporate and can be written
+                    // 700 means that this is an additional Person and can be written
+                    if (sameFirst) {
+                        return -1;
+                    } else if ("700".equals(marcMainTag)) {
+                        return 700;
+                    } else if ("710".equals(marcMainTag)) {
+                        return 710;
+                    } else if ("711".equals(marcMainTag)) {
+                        return 711;
+                    } else if ("730".equals(marcMainTag)) {
+                        return 730;
+                    } else {
+                        return -1;
+                    }
+                }
+
+                // 110 means that this is the first Corporate and can be written
+                // 100 means that this is the first Person and can be written
+
+                if ("100".equals(marcMainTag)) {
+                    return 100;
+                } else if ("110".equals(marcMainTag)) {
+                    return 110;
+                } else if ("111".equals(marcMainTag)) {
+                    return 111;
+                } else if ("130".equals(marcMainTag)) {
+                    return 130;
+                } else {
+                    return -1;
+                }
+            default:
+                return 0;
+
+        }
+    }
+
+    private Element writeMetadataGeneral(DocStruct docstruct, Element recordElement, Element marcField, MarcMetadataField configuredField,
+            Metadata md, MetadataType conditionType, MetadataIndex metadataIndex, MarcRecordContext context) {
+        // configured condition, check if they match
+        if (conditionType != null) {
+            boolean match = checkConditions(docstruct, configuredField, conditionType, metadataIndex);
+            if (!match) {
+                return marcField;
+            }
+        }
+
+        marcField = generateMarcField(recordElement, marcField, configuredField);
+
+        // the replacements are configured for the original values, so the result is normalized afterwards
+        String marcFieldText = getWrappedMarcFieldText(configuredField, md, context);
+        if (configuredField.getReplacements().containsKey(marcFieldText)) {
+            marcFieldText = configuredField.getReplacements().get(marcFieldText);
+        }
+        marcFieldText = normalizer.normalize(marcFieldText);
+
+        Element elementToSetText;
+        String mergeSeparator = configuredField.getMergeSeparator();
+        // The controlfield-check was not there for Person and Corporation, but I think it should be. - Zehong
+        if (mergeSeparator != null && (elementToSetText = getElementToSetText(marcField, configuredField)) != null) {
+
+            String mergedText = getMergedText(elementToSetText.getText(), mergeSeparator, marcFieldText);
+            elementToSetText.setText(mergedText);
+
+        } else if (CONTROLFIELD_NAME.equals(configuredField.getFieldType())) {
+            marcField.setText(marcFieldText);
+
+        } else { // no need to merge or there is still no proper subfield available yet
+            Element subfield = new Element(SUBFIELD_NAME, marc);
+            subfield.setAttribute("code", configuredField.getMarcSubTag());
+            subfield.setText(marcFieldText);
+            marcField.addContent(subfield);
+
+            // The following X-check block was not there for Person and Corporation, but I think it should be. - Zehong
+            if ("X".equals(marcField.getAttributeValue("ind2"))) {
+                // sorting title
+                int ind2Value = nonFilingArticles.getNonFilingCount(marcFieldText, getRecordLanguage(docstruct, metadataIndex));
+                marcField.setAttribute("ind2", "" + ind2Value);
+            }
+        }
+
+        // additional subfield
+        if (StringUtils.isNotBlank(configuredField.getAdditionalSubFieldCode())) {
+            Element subfield = new Element(SUBFIELD_NAME, marc);
+            subfield.setAttribute("code", configuredField.getAdditionalSubFieldCode());
+            subfield.setText(normalizer.normalize(configuredField.getAdditionalSubFieldValue()));
+            marcField.addContent(subfield);
+        }
+
+        return marcField;
+    }
+
+    private String getRecordLanguage(DocStruct docstruct, MetadataIndex metadataIndex) {
+        if (StringUtils.isBlank(languageField)) {
+            return null;
+        }
+        List<Metadata> languages = metadataIndex.get(docstruct).getMetadata(languageField);
+        return languages.isEmpty() ? null : languages.get(0).getValue();
+    }
+
+    private Element getElementToSetText(Element marcField, MarcMetadataField configuredField) {
+        if (CONTROLFIELD_NAME.equals(configuredField.getFieldType())) {
+            return marcField;
+        }
+        Element lastMatchingSubfield = null;
+        for (Element el : marcField.getChildren()) {
+            if (configuredField.getMarcSubTag().equals(el.getAttributeValue("code"))) {
+                lastMatchingSubfield = el;
+            }
+        }
+        return lastMatchingSubfield;
+    }
+
+    private String getMergedText(String oldText, String separator, String newText) {
+        if (StringUtils.isBlank(oldText)) {
+            return newText;
+        }
+
+        return oldText + (StringUtils.isBlank(separator) ? " " : separator.replace("\\u0020", " ")) + newText;
+    }
+
+    private List<? extends Metadata> getMetadataListGeneral(DocStruct docstruct, MarcMetadataField configuredField, MetadataType mdt,
+            MetadataIndex metadataIndex) {
+        // Person
+        if (mdt.getIsPerson()) {
+            return metadataIndex.get(docstruct).getPersons(mdt.getName());
+        }
+
+        // Corporate
+        if (mdt.isCorporate()) {
+            return metadataIndex.get(docstruct).getCorporates(mdt.getName());
+        }
+
+        // other Metadata, which is not anchor
+        if (!configuredField.isAnchorMetadata()) {
+            return metadataIndex.get(docstruct).getMetadata(mdt.getName());
+        }
+
+        // anchor metadata
+        if (docstruct.getParent() != null) {
+            return metadataIndex.get(docstruct.getParent()).getMetadata(mdt.getName());
+        }
+
+        return Collections.emptyList();
+    }
+
+    private String getMarcFieldTextFromMetadata(Metadata md) {
+        if (md instanceof Corporate) {
+            return ((Corporate) md).getMainName();
+        }
+
+        if (md instanceof Person) {
+            Person p = (Person) md;
+            return p.getLastname() + ", " + p.getFirstname();
+        }
+
+        // normal metadata
+        return md.getValue();
+    }
+
+    private Element generateMarcField(Element recordElement, Element marcField, MarcMetadataField configuredField) {
+        if ("none".equals(configuredField.getReuseMode())) {
+            marcField = createMainElement(recordElement, configuredField);
+
+        } else if (isMarcFieldReusable(marcField, configuredField)) {
+            // re-use field
+
+        } else {
+            marcField = createMainElement(recordElement, configuredField);
+        }
+
+        return marcField;
+    }
+
+    private boolean isMarcFieldReusable(Element marcField, MarcMetadataField configuredField) {
+        return CONTROLFIELD_NAME.equals(configuredField.getFieldType()) ? isMarcControlFieldReusable(marcField, configuredField)
+                : isMarcDataFieldReusable(marcField, configuredField);
+    }
+
+    private boolean isMarcControlFieldReusable(Element marcField, MarcMetadataField configuredField) {
+        return marcField != null && marcField.getAttributeValue("tag").equals(configuredField.getMarcMainTag());
+    }
+
+    private boolean isMarcDataFieldReusable(Element marcField, MarcMetadataField configuredField) {
+        return marcField != null && marcField.getAttributeValue("tag").equals(configuredField.getMarcMainTag())
+                && configuredField.getInd1().equals(marcField.getAttributeValue("ind1"))
+                && ("X".equals(configuredField.getInd2()) || configuredField.getInd2().equals(marcField.getAttributeValue("ind2")));
+    }
+
+    private String getWrappedMarcFieldText(MarcMetadataField configuredField, Metadata md, MarcRecordContext context) {
+        // tokens of static texts are evaluated once per record and shared by all rules
+        String marcFieldText;
+        if (md == null) {
+            marcFieldText = configuredField.getTextTemplate().evaluate(context);
+        } else {
+            marcFieldText = getMarcFieldTextFromMetadata(md);
+            // a metadata value {date} is replaced by the export date as well
+            if (METADATA_DATE.getText().equals(marcFieldText)) {
+                marcFieldText = METADATA_DATE.evaluate(context);
+            }
+        }
+        // check pattern
+        if (StringUtils.isNoneBlank(configuredField.getPatternTemplate(), configuredField.getPatternTarget())) {
+            marcFieldText = getPatternTargetFromText(marcFieldText, configuredField.getPatternTemplate(), configuredField.getPatternTarget());
+        }
+
+        if (StringUtils.isNotBlank(configuredField.getRegularExpression())) {
+            List<String> params = MetsModsImportExport.splitRegularExpression(configuredField.getRegularExpression());
+            marcFieldText = marcFieldText.replaceAll(params.get(0), params.get(1));
+        }
+
+        String left = configuredField.getWrapperLeft();
+        String right = configuredField.getWrapperRight();
+        if (left == null) {
+            left = "";
+        } else if (StringUtils.isEmpty(left)) {
+            left = " ";
+        }
+        if (right == null) {
+            right = "";
+        } else if (StringUtils.isEmpty(right)) {
+            right = " ";
+        }
+
+        return left.replace("\\u0020", " ") + marcFieldText + right.replace("\\u0020", " ");
+    }
+
+    private String getPatternTargetFromText(String text, String template, String target) {
+        String textCopy = text;
+
+        Matcher matcher = SEPARATOR_PATTERN.matcher(template);
+        while (matcher.find()) {
+            String separator = matcher.group();
+            int splitIndexTemplate = template.indexOf(separator);
+            int splitIndexText = textCopy.indexOf(separator);
+            if (splitIndexText < 0) {
+                // pattern template is not correctly configured
+                log.error("Unknown separator " + separator + " in the text. @patternTemplate may be incorrect.");
+                return text;
+            }
+
+            String key = template.substring(0, splitIndexTemplate);
+            if (target.equals(key)) {
+                // match found
+                return textCopy.substring(0, splitIndexText);
+            }
+
+            // not a match yet, update template and textCopy
+            template = template.substring(splitIndexTemplate + 1);
+            textCopy = textCopy.substring(splitIndexText + 1);
+        }
+
+        // return the original text if no match found
+        return target.equals(template) ? textCopy : text;
+    }
+
+    private boolean checkConditions(DocStruct docstruct, MarcMetadataField configuredField, MetadataType conditionType, MetadataIndex metadataIndex) {
+        // filter out a list of Metadata whose elements are all of conditionType
+        List<? extends Metadata> conditionList = null;
+        if (configuredField.isAnchorMetadata()) {
+            if (docstruct.getParent() != null) {
+                conditionList = metadataIndex.get(docstruct.getParent()).getMetadata(conditionType.getName());
+            } else {
+                return false;
+            }
+        } else {
+            conditionList = metadataIndex.get(docstruct).getMetadata(conditionType.getName());
+        }
+
+        if (conditionList == null || conditionList.isEmpty()) {
+            // nothing found
+            return false;
+        }
+
+        // look for a match
+        boolean match = false;
+        for (Metadata md : conditionList) {
+            match = match || isMetadataAMatch(md, configuredField);
+        }
+        return match;
+    }
+
+    private boolean isMetadataAMatch(Metadata md, MarcMetadataField configuredField) {
+        switch (configuredField.getConditionType()) {
+            case "is":
+                return md.getValue().equals(configuredField.getConditionValue());
+            case "not":
+                return !md.getValue().equals(configuredField.getConditionValue());
+            case "matches":
+                return md.getValue().matches(configuredField.getConditionValue());
+            case "any":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private StringBuilder createLeader(MarcDocstructField docstruct) {
+        StringBuilder leader = new StringBuilder();
+        leader.append("xxxxx"); // 00-04 - Record length, empty
+        leader.append("n"); // 05 - Record status, n=new
+        if (StringUtils.isNotBlank(docstruct.getLeader6())) {
+            leader.append(docstruct.getLeader6());
+        } else {
+            leader.append("a"); // 06 - Type of record, a - Language material
+        }
+        // 07 - Bibliographic level
+        if (StringUtils.isNotBlank(docstruct.getLeader7())) {
+            leader.append(docstruct.getLeader7());
+        } else {
+            leader.append("m"); // Monograph/Item
+        }
+        leader.append(" "); // 08 - Type of control - empty
+        leader.append("a"); //09 - Character coding scheme
+        leader.append("2"); //10 - Indicator count
+
+        leader.append("2"); // 11 - Subfield code count
+        leader.append("yyyyy"); // 12-16 - Base address of data
+        leader.append("u");// 17 - Encoding level u - Unknown
+        leader.append("u"); // 18 - Descriptive cataloging form u - Unknown
+        // 19 - Multipart resource record level
+        if (StringUtils.isNotBlank(docstruct.getLeader19())) {
+            leader.append(docstruct.getLeader19());
+        } else {
+            leader.append(" ");
+        }
+        // 20 - Length of the length-of-field portion
+        // 21 - Length of the starting-character-position portion
+        // 22 - Length of the implementation-defined portion
+        // 23 - Undefined
+        leader.append("4500");
+        return leader;
+    }
+
+    private Element createMainElement(Element rootElement, MarcMetadataField configuredField) {
+        Element element = new Element(configuredField.getFieldType(), marc);
+        element.setAttribute("tag", configuredField.getMarcMainTag());
+        if ("datafield".equals(configuredField.getFieldType())) {
+            element.setAttribute("ind1", configuredField.getInd1());
+            element.setAttribute("ind2", configuredField.getInd2());
+        }
+        rootElement.addContent(element);
+        return element;
+    }
+}
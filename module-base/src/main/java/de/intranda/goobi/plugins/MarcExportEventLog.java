@@ -0,0 +1,157 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Optional event log of the export in JSON lines format. Each exported record gets one entry with its sizes and the durations of the export
+ * phases. The time to read the METS file of the process is divided between its records. If the total time of the record, including its share of
+ * the read time, exceeds the threshold, an additional slow-record entry lists the marcField rules that took the most time.
+ */
+public class MarcExportEventLog {
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    private final Path logFile;
+
+    private final long slowRecordThreshold; // nanoseconds
+
+    private final int slowRecordRules; // number of rules listed in a slow-record entry
+
+    private final List<String> ruleLabels;
+
+    /**
+     * Create a new event log
+     *
+     * @param logFile file to append the entries to
+     * @param slowRecordThresholdMs threshold in milliseconds, 0 disables the slow-record entries
+     * @param slowRecordRules number of rules listed in a slow-record entry
+     * @param ruleLabels description of each marcField rule, in the order of the rules
+     */
+    public MarcExportEventLog(Path logFile, long slowRecordThresholdMs, int slowRecordRules, List<String> ruleLabels) {
+        this.logFile = logFile;
+        this.slowRecordThreshold = slowRecordThresholdMs * 1_000_000;
+        this.slowRecordRules = slowRecordRules;
+        this.ruleLabels = ruleLabels;
+    }
+
+    /**
+     * Create the entries of an exported record
+     *
+     * @param entries list to add the entries to
+     * @param processId id of the process
+     * @param profile name of the export profile, can be empty
+     * @param marcRecord the exported record
+     * @param readTime share of this record in the nanoseconds needed to read the METS file of the process, 0 if it was not read by the export
+     * @param writeTime nanoseconds needed to serialize and write the record
+     * @param outputBytes size of the written record
+     */
+    public void addEntries(List<String> entries, String processId, String profile, MarcRecord marcRecord, long readTime, long writeTime,
+            long outputBytes) {
+        long recordTime = marcRecord.getMappingTime() + marcRecord.getValidationTime() + writeTime;
+        long totalTime = readTime + recordTime;
+
+        JsonObject entry = createEntry("record", processId, profile, marcRecord);
+        entry.addProperty("metadataCount", marcRecord.getMetadataCount());
+        entry.addProperty("groupCount", marcRecord.getGroupCount());
+        entry.addProperty("outputBytes", outputBytes);
+        JsonObject durations = new JsonObject();
+        durations.addProperty("readMs", toMillis(readTime));
+        durations.addProperty("mappingMs", toMillis(marcRecord.getMappingTime()));
+        durations.addProperty("validationMs", toMillis(marcRecord.getValidationTime()));
+        durations.addProperty("writeMs", toMillis(writeTime));
+        durations.addProperty("recordMs", toMillis(recordTime));
+        durations.addProperty("totalMs", toMillis(totalTime));
+        entry.add("durations", durations);
+        entries.add(GSON.toJson(entry));
+
+        if (slowRecordThreshold > 0 && totalTime > slowRecordThreshold) {
+            JsonObject slow = createEntry("slow-record", processId, profile, marcRecord);
+            slow.addProperty("readMs", toMillis(readTime));
+            slow.addProperty("recordMs", toMillis(recordTime));
+            slow.addProperty("totalMs", toMillis(totalTime));
+            slow.addProperty("thresholdMs", slowRecordThreshold / 1_000_000);
+            JsonArray heaviestRules = new JsonArray();
+            long[] ruleTimes = marcRecord.getRuleTimes();
+            if (ruleTimes != null) {
+                List<Integer> rules = new ArrayList<>();
+                for (int i = 0; i < ruleTimes.length; i++) {
+                    rules.add(i);
+                }
+                rules.sort(Comparator.comparingLong((Integer i) -> ruleTimes[i]).reversed());
+                for (int i = 0; i < Math.min(slowRecordRules, rules.size()); i++) {
+                    int rule = rules.get(i);
+                    JsonObject ruleEntry = new JsonObject();
+                    ruleEntry.addProperty("rule", rule < ruleLabels.size() ? ruleLabels.get(rule) : String.valueOf(rule));
+                    ruleEntry.addProperty("ms", toMillis(ruleTimes[rule]));
+                    heaviestRules.add(ruleEntry);
+                }
+            }
+            slow.add("heaviestRules", heaviestRules);
+            entries.add(GSON.toJson(slow));
+        }
+    }
+
+    /**
+     * Append entries to the log file
+     *
+     * @param entries entries created by {@link #addEntries(List, String, String, MarcRecord, long, long, long)}
+     * @throws IOException
+     */
+    public void append(List<String> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (String entry : entries) {
+            lines.append(entry).append('\n');
+        }
+        MarcExportIndex.appendLines(logFile, lines.toString());
+    }
+
+    private static JsonObject createEntry(String event, String processId, String profile, MarcRecord marcRecord) {
+        JsonObject entry = new JsonObject();
+        entry.addProperty("event", event);
+        entry.addProperty("timestamp", Instant.now().toString());
+        entry.addProperty("processId", StringUtils.defaultString(processId));
+        entry.addProperty("profile", StringUtils.defaultString(profile));
+        entry.addProperty("identifier", StringUtils.defaultString(marcRecord.getIdentifier()));
+        entry.addProperty("docstructType", StringUtils.defaultString(marcRecord.getDocstructType()));
+        return entry;
+    }
+
+    private static double toMillis(long nanos) {
+        // microsecond precision is enough for the log
+        return Math.round(nanos / 1_000d) / 1_000d;
+    }
+}
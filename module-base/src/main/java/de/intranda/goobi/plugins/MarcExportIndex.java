@@ -0,0 +1,128 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only index of all exported records. Each line contains identifier, process id, path relative to the export folder and export timestamp,
+ * separated by tabs. Later lines replace earlier lines of the same identifier, so the index can be read into a map for constant time lookups.
+ */
+public class MarcExportIndex {
+
+    // all steps of this Goobi instance that write into the same file share a lock
+    private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path indexFile;
+
+    public MarcExportIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Append entries to the index file, the file is created if it does not exist yet
+     *
+     * @param entries entries to append
+     * @throws IOException
+     */
+    public void append(List<MarcExportIndexEntry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (MarcExportIndexEntry entry : entries) {
+            lines.append(clean(entry.getIdentifier()))
+                    .append('\t')
+                    .append(clean(entry.getProcessId()))
+                    .append('\t')
+                    .append(clean(entry.getRelativePath()))
+                    .append('\t')
+                    .append(clean(entry.getExportTimestamp()))
+                    .append('\n');
+        }
+        appendLines(indexFile, lines.toString());
+    }
+
+    /**
+     * Append lines to a file that is shared by several steps and Goobi instances
+     *
+     * @param file file to append to, it is created if it does not exist yet
+     * @param lines lines to append, including the line breaks
+     * @throws IOException
+     */
+    static void appendLines(Path file, String lines) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+
+        synchronized (LOCKS.computeIfAbsent(file.toAbsolutePath(), k -> new Object())) {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            // the file lock protects the file against other Goobi instances that use the same export folder
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    FileLock lock = channel.lock()) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the index file
+     *
+     * @return map of identifier and the latest entry of this identifier
+     * @throws IOException
+     */
+    public Map<String, MarcExportIndexEntry> load() throws IOException {
+        Map<String, MarcExportIndexEntry> entries = new HashMap<>();
+        if (!Files.exists(indexFile)) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", -1);
+                if (parts.length == 4) {
+                    entries.put(parts[0], new MarcExportIndexEntry(parts[0], parts[1], parts[2], parts[3]));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static String clean(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
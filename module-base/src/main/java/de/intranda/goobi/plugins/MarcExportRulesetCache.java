@@ -0,0 +1,165 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.MetadataGroupType;
+import ugh.dl.MetadataType;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+
+/**
+ * Plugin wide cache of parsed rulesets. A ruleset file is parsed only once as long as its modification time does not change. The metadata types
+ * and metadata group types used by the configured rules are resolved once per ruleset and kept together with the Prefs.
+ */
+@Log4j2
+public final class MarcExportRulesetCache {
+
+    private static final Map<String, CachedFile> FILES = new ConcurrentHashMap<>();
+
+    private MarcExportRulesetCache() {
+    }
+
+    /**
+     * Get the parsed ruleset of a file. The file is parsed again if it was modified since it was cached.
+     *
+     * @param rulesetFile path of the ruleset file
+     * @return cached ruleset
+     * @throws PreferencesException if the ruleset cannot be parsed
+     * @throws IOException if the modification time cannot be read
+     */
+    public static Ruleset getRuleset(Path rulesetFile) throws PreferencesException, IOException {
+        String key = rulesetFile.toAbsolutePath().normalize().toString();
+        long lastModified = Files.getLastModifiedTime(rulesetFile).toMillis();
+        CachedFile cached = FILES.get(key);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.ruleset;
+        }
+        synchronized (MarcExportRulesetCache.class) {
+            // another thread may have parsed the file in the meantime
+            cached = FILES.get(key);
+            if (cached == null || cached.lastModified != lastModified) {
+                long start = System.nanoTime();
+                Prefs prefs = new Prefs();
+                prefs.loadPrefs(key);
+                cached = new CachedFile(lastModified, new Ruleset(prefs));
+                FILES.put(key, cached);
+                log.debug("Parsed ruleset " + key + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            return cached.ruleset;
+        }
+    }
+
+    /**
+     * Get the ruleset of an already loaded Prefs object. If the Prefs were loaded by this cache, the cached ruleset is returned. Prefs that were
+     * loaded elsewhere are not cached, as the cache would keep them alive; their types are resolved once per call.
+     *
+     * @param prefs loaded Prefs
+     * @return cached ruleset of the Prefs or a new ruleset
+     */
+    public static Ruleset getRuleset(Prefs prefs) {
+        for (CachedFile cached : FILES.values()) {
+            if (cached.ruleset.prefs == prefs) {
+                return cached.ruleset;
+            }
+        }
+        return new Ruleset(prefs);
+    }
+
+    private static class CachedFile {
+        private final long lastModified;
+        private final Ruleset ruleset;
+
+        private CachedFile(long lastModified, Ruleset ruleset) {
+            this.lastModified = lastModified;
+            this.ruleset = ruleset;
+        }
+    }
+
+    /**
+     * A parsed ruleset together with the types that were resolved by name. Each name is resolved only once, unknown names are remembered as
+     * well. The maps are replaced instead of modified, so lookups of known names need no locking.
+     */
+    public static class Ruleset {
+
+        private final Prefs prefs;
+
+        private volatile Map<String, MetadataType> metadataTypes = Collections.emptyMap();
+        private volatile Map<String, MetadataGroupType> metadataGroupTypes = Collections.emptyMap();
+
+        private Ruleset(Prefs prefs) {
+            this.prefs = prefs;
+        }
+
+        public Prefs getPrefs() {
+            return prefs;
+        }
+
+        /**
+         * Get a metadata type by name
+         *
+         * @param name name of the metadata type
+         * @return metadata type or null if the ruleset does not contain it
+         */
+        public MetadataType getMetadataType(String name) {
+            Map<String, MetadataType> types = metadataTypes;
+            if (types.containsKey(name)) {
+                return types.get(name);
+            }
+            synchronized (this) {
+                if (!metadataTypes.containsKey(name)) {
+                    Map<String, MetadataType> copy = new HashMap<>(metadataTypes);
+                    copy.put(name, prefs.getMetadataTypeByName(name));
+                    metadataTypes = copy;
+                }
+                return metadataTypes.get(name);
+            }
+        }
+
+        /**
+         * Get a metadata group type by name
+         *
+         * @param name name of the metadata group type
+         * @return metadata group type or null if the ruleset does not contain it
+         */
+        public MetadataGroupType getMetadataGroupType(String name) {
+            Map<String, MetadataGroupType> types = metadataGroupTypes;
+            if (types.containsKey(name)) {
+                return types.get(name);
+            }
+            synchronized (this) {
+                if (!metadataGroupTypes.containsKey(name)) {
+                    Map<String, MetadataGroupType> copy = new HashMap<>(metadataGroupTypes);
+                    copy.put(name, prefs.getMetadataGroupTypeByName(name));
+                    metadataGroupTypes = copy;
+                }
+                return metadataGroupTypes.get(name);
+            }
+        }
+    }
+}
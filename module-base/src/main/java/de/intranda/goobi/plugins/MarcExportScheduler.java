@@ -0,0 +1,265 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Limits the number of concurrent accesses to a shared resource for all marc export steps of the Goobi instance, e.g. reading METS files from the
+ * metadata share or writing into the export folder. Waiting steps are served round robin per project, so a large batch of one project cannot block
+ * the exports of other projects. Interactive exports can be served before all bulk exports.
+ */
+@Log4j2
+public class MarcExportScheduler {
+
+    private static final MarcExportScheduler READ_SCHEDULER = new MarcExportScheduler("METS read");
+    private static final MarcExportScheduler WRITE_SCHEDULER = new MarcExportScheduler("export write");
+
+    // waiting times above this value are logged on info level
+    private static final long SLOW_WAIT_MILLIS = 1000;
+
+    private final String name;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitGranted = lock.newCondition();
+
+    private final Deque<Ticket> interactiveQueue = new ArrayDeque<>();
+    private final Map<String, Deque<Ticket>> projectQueues = new LinkedHashMap<>();
+
+    private int limit = 0; // 0 means unlimited
+    private boolean prioritizeInteractive = true;
+    private int running = 0;
+    private int queueDepth = 0;
+
+    private int maxQueueDepth = 0;
+    private long grantedPermits = 0;
+    private long totalWaitNanos = 0;
+
+    MarcExportScheduler(String name) {
+        this.name = name;
+    }
+
+    public static MarcExportScheduler getReadScheduler() {
+        return READ_SCHEDULER;
+    }
+
+    public static MarcExportScheduler getWriteScheduler() {
+        return WRITE_SCHEDULER;
+    }
+
+    /**
+     * Change the limits of the scheduler, waiting exports are granted immediately if the limit is raised
+     *
+     * @param limit maximum number of concurrent permits, 0 for no limit
+     * @param prioritizeInteractive true if interactive exports are served before bulk exports
+     */
+    public void configure(int limit, boolean prioritizeInteractive) {
+        lock.lock();
+        try {
+            this.limit = Math.max(0, limit);
+            this.prioritizeInteractive = prioritizeInteractive;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isLimited() {
+        lock.lock();
+        try {
+            return limit > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getQueueDepth() {
+        lock.lock();
+        try {
+            return queueDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for a permit. The permit must be closed after the access, preferably with try-with-resources.
+     *
+     * @param project name of the project of the process, used for the round robin between projects
+     * @param interactive true if the export was started by a user, false for automatic bulk exports
+     * @return permit to close after the access
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Permit acquire(String project, boolean interactive) throws InterruptedException {
+        long start = System.nanoTime();
+        int depth;
+        lock.lock();
+        try {
+            Ticket ticket = new Ticket(project, interactive && prioritizeInteractive);
+            enqueue(ticket);
+            depth = queueDepth;
+            dispatch();
+            while (!ticket.granted) {
+                try {
+                    permitGranted.await();
+                } catch (InterruptedException e) {
+                    if (ticket.granted) {
+                        releasePermit();
+                    } else {
+                        remove(ticket);
+                    }
+                    throw e;
+                }
+            }
+            long waitNanos = System.nanoTime() - start;
+            grantedPermits++;
+            totalWaitNanos += waitNanos;
+
+            long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+            if (waitMillis >= SLOW_WAIT_MILLIS) {
+                log.info("Waited " + waitMillis + " ms for a " + name + " permit of project " + project + ", queue depth was " + depth);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Waited " + waitMillis + " ms for a " + name + " permit of project " + project + ", queue depth was " + depth);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Permit();
+    }
+
+    /**
+     * Get a short summary of the current queue depth and the waiting times
+     *
+     * @return summary to be logged
+     */
+    public String getStatistics() {
+        lock.lock();
+        try {
+            long averageWaitMillis = grantedPermits == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / grantedPermits);
+            return name + " scheduler: limit " + (limit == 0 ? "none" : String.valueOf(limit)) + ", running " + running + ", queue depth " + queueDepth
+                    + ", max queue depth " + maxQueueDepth + ", granted " + grantedPermits + ", average wait " + averageWaitMillis + " ms";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Ticket ticket) {
+        if (ticket.interactive) {
+            interactiveQueue.add(ticket);
+        } else {
+            projectQueues.computeIfAbsent(ticket.project, k -> new ArrayDeque<>()).add(ticket);
+        }
+        queueDepth++;
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+    }
+
+    private void remove(Ticket ticket) {
+        boolean removed;
+        if (ticket.interactive) {
+            removed = interactiveQueue.remove(ticket);
+        } else {
+            Deque<Ticket> queue = projectQueues.get(ticket.project);
+            removed = queue != null && queue.remove(ticket);
+            if (queue != null && queue.isEmpty()) {
+                projectQueues.remove(ticket.project);
+            }
+        }
+        if (removed) {
+            queueDepth--;
+        }
+    }
+
+    /**
+     * Grant permits to waiting tickets as long as the limit allows it. Interactive tickets are served first, then one ticket of each project in
+     * turn.
+     */
+    private void dispatch() {
+        boolean granted = false;
+        while (queueDepth > 0 && (limit == 0 || running < limit)) {
+            Ticket next = interactiveQueue.poll();
+            if (next == null) {
+                Iterator<Map.Entry<String, Deque<Ticket>>> iterator = projectQueues.entrySet().iterator();
+                Map.Entry<String, Deque<Ticket>> entry = iterator.next();
+                next = entry.getValue().poll();
+                // move the project to the end of the round robin
+                iterator.remove();
+                if (!entry.getValue().isEmpty()) {
+                    projectQueues.put(entry.getKey(), entry.getValue());
+                }
+            }
+            next.granted = true;
+            queueDepth--;
+            running++;
+            granted = true;
+        }
+        if (granted) {
+            permitGranted.signalAll();
+        }
+    }
+
+    private void releasePermit() {
+        running--;
+        dispatch();
+    }
+
+    private static class Ticket {
+        private final String project;
+        private final boolean interactive;
+        private boolean granted = false;
+
+        private Ticket(String project, boolean interactive) {
+            this.project = project == null ? "" : project;
+            this.interactive = interactive;
+        }
+    }
+
+    /**
+     * Permit to access the resource, it is released on close
+     */
+    public class Permit implements AutoCloseable {
+
+        private boolean closed = false;
+
+        private Permit() {
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (!closed) {
+                    closed = true;
+                    releasePermit();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -58,6 +58,8 @@ public class MarcMetadataField {
 
     private String staticText;
 
+    private MarcTextTemplate textTemplate; // parsed staticText
+
     private String wrapperLeft;
     private String wrapperRight;
 
@@ -0,0 +1,183 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+
+import de.sub.goobi.helper.Helper;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+
+/**
+ * Exports the records of one export profile for one process: create the records, handle invalid records according to the validation mode, write
+ * them into the export folder using the configured layout and update the export index and the event log. It is used by the step plugin and by
+ * the test harnesses, so that both measure the same code path.
+ */
+@Log4j2
+public class MarcProfileExporter {
+
+    private final MarcExportEngine engine;
+    private final String processId;
+    private final String projectName;
+    private final boolean interactive;
+    private final long readTime; // nanoseconds needed to read the METS file, 0 if it was not read by the export
+
+    private List<MarcRecord> writtenRecords = Collections.emptyList();
+
+    public MarcProfileExporter(MarcExportEngine engine, String processId, String projectName, boolean interactive, long readTime) {
+        this.engine = engine;
+        this.processId = processId;
+        this.projectName = projectName;
+        this.interactive = interactive;
+        this.readTime = readTime;
+    }
+
+    /**
+     * Create, validate and save all records of the profile
+     *
+     * @param ff loaded METS file of the process
+     * @param prefs ruleset of the process
+     * @param metadataIndex index of the metadata, can be shared with other profiles
+     * @param processContext process data used for the tokens of static texts
+     * @return false if the export of the profile failed, true otherwise
+     */
+    public boolean export(Fileformat ff, Prefs prefs, MetadataIndex metadataIndex, MarcRecordContext processContext) {
+        if (StringUtils.isBlank(engine.getExportFolder())) {
+            log.error("No exportFolder configured" + (StringUtils.isBlank(engine.getName()) ? "" : " for export profile " + engine.getName()));
+            return false;
+        }
+        MarcRecordValidator validator = new MarcRecordValidator(engine.getValidationMode());
+
+        List<MarcRecord> records = engine.createRecords(ff, prefs, validator, metadataIndex, processContext);
+        if (records == null) {
+            // error happened
+            return false;
+        }
+
+        // all records of the profile are written with a single permit
+        writtenRecords = new ArrayList<>();
+        List<MarcExportIndexEntry> indexEntries = new ArrayList<>();
+        boolean success = true;
+        try (MarcExportScheduler.Permit permit = MarcExportScheduler.getWriteScheduler().acquire(projectName, interactive)) {
+            for (MarcRecord marcRecord : records) {
+                if (!validateAndSaveMarcRecord(marcRecord, validator, indexEntries)) {
+                    success = false;
+                    break;
+                }
+            }
+            if (engine.getExportIndex() != null) {
+                engine.getExportIndex().append(indexEntries);
+            }
+            if (engine.getEventLog() != null) {
+                engine.getEventLog().append(createEvents());
+            }
+        } catch (InterruptedException e) {
+            log.error(e);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            log.error(e);
+            return false;
+        }
+        if (!success) {
+            return false;
+        }
+
+        logValidationSummary(validator);
+        return true;
+    }
+
+    /**
+     * Get the records that were written by the last export
+     *
+     * @return written records, with write time and output size
+     */
+    public List<MarcRecord> getWrittenRecords() {
+        return writtenRecords;
+    }
+
+    /**
+     * Check the validation result of the record according to the configured validation mode and save it into the export folder
+     *
+     * @return false if the export must be stopped, true otherwise
+     */
+    private boolean validateAndSaveMarcRecord(MarcRecord marcRecord, MarcRecordValidator validator, List<MarcExportIndexEntry> indexEntries) {
+        MarcRecordValidator.Action action = validator.getAction(marcRecord);
+        if (action == MarcRecordValidator.Action.FAIL) {
+            Helper.setFehlerMeldung(MarcRecordValidator.getViolationMessage(marcRecord));
+            logValidationSummary(validator);
+            return false;
+        } else if (action == MarcRecordValidator.Action.SKIP) {
+            return true;
+        }
+
+        String relativePath = engine.getRelativePath(processId, marcRecord.getIdentifier());
+        Path outputFile = Paths.get(engine.getExportFolder()).resolve(relativePath);
+        long writeStart = System.nanoTime();
+        try {
+            Files.createDirectories(outputFile.getParent());
+            try (OutputStream os = Files.newOutputStream(outputFile)) {
+                engine.writeRecord(marcRecord, os);
+            }
+            marcRecord.setOutputBytes(Files.size(outputFile));
+        } catch (IOException e) {
+            log.error(e);
+            return false;
+        }
+        marcRecord.setWriteTime(System.nanoTime() - writeStart);
+        writtenRecords.add(marcRecord);
+        indexEntries.add(new MarcExportIndexEntry(marcRecord.getIdentifier(), processId, relativePath, Instant.now().toString()));
+        return true;
+    }
+
+    /**
+     * Create the event log entries of the written records. The METS file is read once per process, so each record gets an equal share of the
+     * read time and the durations of all records add up to the time of the process.
+     *
+     * @return entries for the event log
+     */
+    private List<String> createEvents() {
+        List<String> events = new ArrayList<>();
+        long readShare = writtenRecords.isEmpty() ? 0 : readTime / writtenRecords.size();
+        for (MarcRecord marcRecord : writtenRecords) {
+            engine.getEventLog()
+                    .addEntries(events, processId, engine.getName(), marcRecord, readShare, marcRecord.getWriteTime(), marcRecord.getOutputBytes());
+        }
+        return events;
+    }
+
+    private void logValidationSummary(MarcRecordValidator validator) {
+        if (!validator.getViolationCounts().isEmpty()) {
+            log.info("MARC validation violations per rule for process " + processId
+                    + (StringUtils.isBlank(engine.getName()) ? "" : " and profile " + engine.getName()) + ": " + validator.getViolationCounts());
+        }
+    }
+}
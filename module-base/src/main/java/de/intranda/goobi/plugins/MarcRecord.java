@@ -0,0 +1,53 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Document;
+
+import lombok.Data;
+
+@Data
+public class MarcRecord {
+
+    private final String identifier;
+
+    private final String docstructType;
+
+    private final Document document;
+
+    private List<String> violations = Collections.emptyList(); // structural violations found by the validator
+
+    private long mappingTime; // nanoseconds needed to create the record
+
+    private long validationTime; // nanoseconds needed to validate the record
+
+    private int metadataCount; // metadata, persons and corporates of the docstruct
+
+    private int groupCount; // metadata groups of the docstruct
+
+    private long[] ruleTimes; // nanoseconds per marcField rule, only recorded if the event log is enabled
+
+    private long writeTime; // nanoseconds needed to serialize and write the record
+
+    private long outputBytes; // size of the written record
+}
@@ -0,0 +1,82 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import lombok.Getter;
+
+/**
+ * Values of the process and the record that can be used in static texts. A context is created for the process and a copy of it for each
+ * record, the copy keeps the evaluated token values, so that each token is evaluated at most once per record.
+ */
+public class MarcRecordContext {
+
+    @Getter
+    private final String processId;
+    @Getter
+    private final String processTitle;
+    @Getter
+    private final ZonedDateTime exportTime;
+    @Getter
+    private final String identifier;
+
+    private final Map<String, String> values = new HashMap<>();
+
+    /**
+     * Create the context of a process
+     *
+     * @param processId id of the process, can be null
+     * @param processTitle title of the process, can be null
+     * @param exportTime time of the export, used for all date tokens of all records
+     */
+    public MarcRecordContext(String processId, String processTitle, ZonedDateTime exportTime) {
+        this(processId, processTitle, exportTime, null);
+    }
+
+    private MarcRecordContext(String processId, String processTitle, ZonedDateTime exportTime, String identifier) {
+        this.processId = processId;
+        this.processTitle = processTitle;
+        this.exportTime = exportTime;
+        this.identifier = identifier;
+    }
+
+    /**
+     * Create the context of a single record of the process
+     *
+     * @param recordIdentifier identifier of the record
+     * @return new context with its own token values
+     */
+    public MarcRecordContext forRecord(String recordIdentifier) {
+        return new MarcRecordContext(processId, processTitle, exportTime, recordIdentifier);
+    }
+
+    String getValue(String token, Function<MarcRecordContext, String> evaluation) {
+        String value = values.get(token);
+        if (value == null) {
+            value = evaluation.apply(this);
+            values.put(token, value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jdom2.Element;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Checks the structural MARC 21 rules of a generated record in one pass over its fields. The validator keeps the number of violations per rule,
+ * so that a summary can be reported once all records of a process are exported.
+ */
+@Log4j2
+public class MarcRecordValidator {
+
+    /**
+     * Handling of a created record, depending on its violations and the validation mode
+     */
+    public enum Action {
+        WRITE,
+        SKIP,
+        FAIL
+    }
+
+    public static final String MODE_NONE = "none";
+    public static final String MODE_WARN = "warn";
+    public static final String MODE_SKIP = "skip";
+    public static final String MODE_FAIL = "fail";
+
+    private static final String RULE_LEADER_LENGTH = "leader-length";
+    private static final String RULE_MISSING_245 = "missing-245";
+    private static final String RULE_REPEATED_245 = "repeated-245";
+    private static final String RULE_MULTIPLE_1XX = "multiple-1xx";
+    private static final String RULE_CONTROLFIELD_TAG = "controlfield-tag";
+    private static final String RULE_DATAFIELD_TAG = "datafield-tag";
+    private static final String RULE_REPEATED_CONTROLFIELD = "repeated-controlfield";
+    private static final String RULE_008_LENGTH = "008-length";
+    private static final String RULE_UNRESOLVED_INDICATOR = "unresolved-indicator";
+    private static final String RULE_INVALID_INDICATOR = "invalid-indicator";
+    private static final String RULE_SUBFIELD_CODE = "subfield-code";
+    private static final String RULE_EMPTY_DATAFIELD = "empty-datafield";
+
+    private static final int LEADER_LENGTH = 24;
+    private static final int FIELD_008_LENGTH = 40;
+
+    // none | warn | skip | fail
+    private final String mode;
+
+    private final Map<String, Integer> violationCounts = new TreeMap<>();
+
+    public MarcRecordValidator(String mode) {
+        this.mode = mode == null ? MODE_NONE : mode.toLowerCase();
+    }
+
+    public boolean isEnabled() {
+        return !MODE_NONE.equals(mode);
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    /**
+     * Validate a MARC record element
+     *
+     * @param recordElement the marc:record element
+     * @return list of violation messages, empty if the record is valid
+     */
+    public List<String> validate(Element recordElement) {
+        List<String> violations = new ArrayList<>();
+        int count245 = 0;
+        int count1xx = 0;
+        boolean[] controlfieldSeen = new boolean[10];
+
+        for (Element field : recordElement.getChildren()) {
+            String name = field.getName();
+            String tag = field.getAttributeValue("tag");
+
+            if ("leader".equals(name)) {
+                if (field.getText().length() != LEADER_LENGTH) {
+                    addViolation(violations, RULE_LEADER_LENGTH, "leader has " + field.getText().length() + " positions instead of " + LEADER_LENGTH);
+                }
+
+            } else if ("controlfield".equals(name)) {
+                if (!isControlfieldTag(tag)) {
+                    addViolation(violations, RULE_CONTROLFIELD_TAG, "tag " + tag + " is not a valid controlfield tag");
+                    continue;
+                }
+                int position = tag.charAt(2) - '0';
+                if (controlfieldSeen[position] && position != 6 && position != 7) {
+                    // 006 and 007 are repeatable, all other control fields are not
+                    addViolation(violations, RULE_REPEATED_CONTROLFIELD, "controlfield " + tag + " is not repeatable");
+                }
+                controlfieldSeen[position] = true;
+                if ("008".equals(tag) && field.getText().length() != FIELD_008_LENGTH) {
+                    addViolation(violations, RULE_008_LENGTH, "008 has " + field.getText().length() + " positions instead of " + FIELD_008_LENGTH);
+                }
+
+            } else if ("datafield".equals(name)) {
+                if (!isDatafieldTag(tag)) {
+                    addViolation(violations, RULE_DATAFIELD_TAG, "tag " + tag + " is not a valid datafield tag");
+                    continue;
+                }
+                if ("245".equals(tag)) {
+                    count245++;
+                } else if (tag.charAt(0) == '1') {
+                    count1xx++;
+                }
+                checkIndicator(violations, tag, "ind1", field.getAttributeValue("ind1"));
+                checkIndicator(violations, tag, "ind2", field.getAttributeValue("ind2"));
+
+                List<Element> subfields = field.getChildren();
+                if (subfields.isEmpty()) {
+                    addViolation(violations, RULE_EMPTY_DATAFIELD, "datafield " + tag + " has no subfield");
+                }
+                for (Element subfield : subfields) {
+                    String code = subfield.getAttributeValue("code");
+                    if (code == null || code.length() != 1 || !isLowercaseAlphanumeric(code.charAt(0))) {
+                        addViolation(violations, RULE_SUBFIELD_CODE, "datafield " + tag + " has invalid subfield code '" + code + "'");
+                    }
+                }
+            }
+        }
+
+        if (count245 == 0) {
+            addViolation(violations, RULE_MISSING_245, "record has no 245 field");
+        } else if (count245 > 1) {
+            addViolation(violations, RULE_REPEATED_245, "record has " + count245 + " 245 fields");
+        }
+        if (count1xx > 1) {
+            addViolation(violations, RULE_MULTIPLE_1XX, "record has " + count1xx + " main entry fields");
+        }
+
+        return violations;
+    }
+
+    /**
+     * Decide how a validated record is handled: valid records and invalid records in mode warn are written, invalid records are skipped in mode
+     * skip and stop the export in mode fail. The violations of invalid records are logged.
+     *
+     * @param marcRecord record that was created with this validator
+     * @return action for the record
+     */
+    public Action getAction(MarcRecord marcRecord) {
+        if (marcRecord.getViolations().isEmpty()) {
+            return Action.WRITE;
+        }
+        String message = getViolationMessage(marcRecord);
+        if (MODE_FAIL.equals(mode)) {
+            log.error(message);
+            return Action.FAIL;
+        }
+        log.warn(message);
+        return MODE_SKIP.equals(mode) ? Action.SKIP : Action.WRITE;
+    }
+
+    /**
+     * Get a message that lists all violations of a record
+     *
+     * @param marcRecord invalid record
+     * @return message for the log or the user
+     */
+    public static String getViolationMessage(MarcRecord marcRecord) {
+        return "MARC record " + marcRecord.getIdentifier() + " is invalid: " + String.join("; ", marcRecord.getViolations());
+    }
+
+    /**
+     * Get the number of violations per rule for all records validated so far
+     *
+     * @return map of rule name and number of violations
+     */
+    public Map<String, Integer> getViolationCounts() {
+        return Collections.unmodifiableMap(violationCounts);
+    }
+
+    private void checkIndicator(List<String> violations, String tag, String indicatorName, String value) {
+        if (value == null || value.length() != 1) {
+            addViolation(violations, RULE_INVALID_INDICATOR, tag + " " + indicatorName + " '" + value + "' is not a single character");
+        } else if ("X".equals(value)) {
+            addViolation(violations, RULE_UNRESOLVED_INDICATOR, tag + " " + indicatorName + " 'X' was not resolved");
+        } else if (value.charAt(0) != ' ' && !isLowercaseAlphanumeric(value.charAt(0))) {
+            addViolation(violations, RULE_INVALID_INDICATOR, tag + " " + indicatorName + " '" + value + "' is not a valid indicator");
+        }
+    }
+
+    private void addViolation(List<String> violations, String rule, String message) {
+        violations.add(rule + ": " + message);
+        violationCounts.merge(rule, 1, Integer::sum);
+    }
+
+    private static boolean isControlfieldTag(String tag) {
+        return tag != null && tag.length() == 3 && tag.charAt(0) == '0' && tag.charAt(1) == '0' && Character.isDigit(tag.charAt(2));
+    }
+
+    private static boolean isDatafieldTag(String tag) {
+        if (tag == null || tag.length() != 3 || isControlfieldTag(tag)) {
+            return false;
+        }
+        for (int i = 0; i < 3; i++) {
+            if (!Character.isLetterOrDigit(tag.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLowercaseAlphanumeric(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z');
+    }
+}
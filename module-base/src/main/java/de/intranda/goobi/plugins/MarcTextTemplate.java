@@ -0,0 +1,171 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A static text of the configuration with tokens that are replaced for each record. The text is parsed once when the configuration is read.
+ * Supported tokens:
+ * <ul>
+ * <li>{date} or {date:pattern}: date of the export, formatted with the default pattern or the given DateTimeFormatter pattern</li>
+ * <li>{exportTimestamp} or {exportTimestamp:pattern}: time of the export, ISO 8601 by default</li>
+ * <li>{processId}, {processTitle}: id and title of the process</li>
+ * <li>{identifier}: identifier of the record</li>
+ * </ul>
+ * Unknown tokens are kept as they are.
+ */
+public class MarcTextTemplate {
+
+    private final String text;
+
+    // literal texts and tokens in the order of the text, empty if the text contains no token
+    private final List<Object> parts;
+
+    private MarcTextTemplate(String text, List<Object> parts) {
+        this.text = text;
+        this.parts = parts;
+    }
+
+    /**
+     * Parse a text
+     *
+     * @param text configured text, can be null
+     * @param defaultDatePattern pattern used for {date} without an explicit pattern
+     * @return parsed template
+     */
+    public static MarcTextTemplate parse(String text, String defaultDatePattern) {
+        if (text == null || text.indexOf('{') < 0) {
+            return new MarcTextTemplate(text, Collections.emptyList());
+        }
+        List<Object> parts = new ArrayList<>();
+        boolean containsToken = false;
+        int position = 0;
+        while (position < text.length()) {
+            int open = text.indexOf('{', position);
+            int close = open < 0 ? -1 : text.indexOf('}', open);
+            Token token = close < 0 ? null : createToken(text.substring(open + 1, close), defaultDatePattern);
+            if (token == null) {
+                int end = close < 0 ? text.length() : open + 1;
+                parts.add(text.substring(position, end));
+                position = end;
+            } else {
+                if (open > position) {
+                    parts.add(text.substring(position, open));
+                }
+                parts.add(token);
+                containsToken = true;
+                position = close + 1;
+            }
+        }
+        return new MarcTextTemplate(text, containsToken ? parts : Collections.emptyList());
+    }
+
+    /**
+     * Check if the text contains tokens
+     *
+     * @return false if the text can be used as it is
+     */
+    public boolean hasTokens() {
+        return !parts.isEmpty();
+    }
+
+    /**
+     * Get the configured text without replacing the tokens
+     *
+     * @return configured text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Replace the tokens with the values of the record
+     *
+     * @param context context of the record, if it is null the configured text is returned
+     * @return text with replaced tokens
+     */
+    public String evaluate(MarcRecordContext context) {
+        if (parts.isEmpty() || context == null) {
+            return text;
+        }
+        if (parts.size() == 1) {
+            return ((Token) parts.get(0)).getValue(context);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof Token) {
+                sb.append(((Token) part).getValue(context));
+            } else {
+                sb.append((String) part);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Token createToken(String content, String defaultDatePattern) {
+        String name = StringUtils.substringBefore(content, ":");
+        String pattern = content.contains(":") ? StringUtils.substringAfter(content, ":") : null;
+        try {
+            switch (name) {
+                case "date":
+                    String datePattern = pattern == null ? defaultDatePattern : pattern;
+                    DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern(datePattern);
+                    // the key contains the pattern, because {date} uses different default patterns in marcField and controlField
+                    return new Token("date:" + datePattern, context -> dateFormatter.format(context.getExportTime()));
+                case "exportTimestamp":
+                    DateTimeFormatter timestampFormatter =
+                            pattern == null ? DateTimeFormatter.ISO_OFFSET_DATE_TIME : DateTimeFormatter.ofPattern(pattern);
+                    return new Token(content, context -> timestampFormatter.format(context.getExportTime()));
+                case "processId":
+                    return new Token(content, context -> StringUtils.defaultString(context.getProcessId()));
+                case "processTitle":
+                    return new Token(content, context -> StringUtils.defaultString(context.getProcessTitle()));
+                case "identifier":
+                    return new Token(content, context -> StringUtils.defaultString(context.getIdentifier()));
+                default:
+                    return null;
+            }
+        } catch (IllegalArgumentException e) {
+            // invalid date pattern, the token is kept as it is
+            return null;
+        }
+    }
+
+    private static class Token {
+        private final String key;
+        private final Function<MarcRecordContext, String> evaluation;
+
+        private Token(String key, Function<MarcRecordContext, String> evaluation) {
+            this.key = key;
+            this.evaluation = evaluation;
+        }
+
+        private String getValue(MarcRecordContext context) {
+            return context.getValue(key, evaluation);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Iterator;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Element;
+
+/**
+ * Normalizes the values that are written into the MARC record: unicode normalization and removal of control characters. Values that contain only
+ * printable ASCII characters are returned unchanged after a single scan, as they are already normalized in every form. The maximum length is
+ * applied to complete fields, as it is counted in ISO 2709.
+ */
+public class MarcValueNormalizer {
+
+    private final Normalizer.Form form;
+
+    private final boolean stripControlCharacters;
+
+    private final int maxLength;
+
+    /**
+     * Create a new normalizer
+     *
+     * @param form NFC, NFD, NFKC, NFKD or none
+     * @param stripControlCharacters true if control characters shall be removed, tabs and line breaks are replaced by a blank
+     * @param maxLength maximum length of a field in UTF-8 bytes, including indicators, subfield codes and field terminator, 0 for no limit
+     */
+    public MarcValueNormalizer(String form, boolean stripControlCharacters, int maxLength) {
+        this.form = StringUtils.isBlank(form) || "none".equalsIgnoreCase(form) ? null : Normalizer.Form.valueOf(form.toUpperCase());
+        this.stripControlCharacters = stripControlCharacters;
+        this.maxLength = maxLength;
+    }
+
+    public boolean isEnabled() {
+        return form != null || stripControlCharacters;
+    }
+
+    public boolean isFieldLengthLimited() {
+        return maxLength > 0;
+    }
+
+    /**
+     * Normalize a value
+     *
+     * @param value value to normalize
+     * @return the normalized value, or the same instance if nothing had to be changed
+     */
+    public String normalize(String value) {
+        if (value == null || !isEnabled()) {
+            return value;
+        }
+
+        boolean ascii = true;
+        boolean control = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+            } else if (c < 0x20 || c == 0x7f) {
+                control = true;
+            }
+        }
+
+        String result = value;
+        if (stripControlCharacters && (control || !ascii)) {
+            result = removeControlCharacters(result);
+        }
+        if (!ascii && form != null && !Normalizer.isNormalized(result, form)) {
+            result = Normalizer.normalize(result, form);
+        }
+        return result;
+    }
+
+    /**
+     * Cut a field to the maximum length. A control field is counted as its value and the field terminator, a data field as two indicators, a
+     * delimiter and code per subfield, the subfield values and the field terminator. The value that exceeds the limit is cut, all following
+     * subfields are removed.
+     *
+     * @param field controlfield or datafield element
+     */
+    public void limitFieldLength(Element field) {
+        if (maxLength <= 0) {
+            return;
+        }
+        // field terminator
+        int remaining = maxLength - 1;
+        if ("controlfield".equals(field.getName())) {
+            field.setText(truncate(field.getText(), remaining));
+            return;
+        }
+        // indicators
+        remaining -= 2;
+        Iterator<Element> subfields = field.getChildren().iterator();
+        while (subfields.hasNext()) {
+            Element subfield = subfields.next();
+            // delimiter and code
+            remaining -= 2;
+            if (remaining < 0) {
+                subfields.remove();
+                continue;
+            }
+            String text = subfield.getText();
+            String truncated = truncate(text, remaining);
+            if (truncated != text) {
+                subfield.setText(truncated);
+            }
+            remaining -= truncated.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+
+    /**
+     * Cut a value to a number of UTF-8 bytes without splitting a character
+     *
+     * @return the value, or the same instance if it is short enough
+     */
+    static String truncate(String value, int maxBytes) {
+        if (value.length() * 3 <= maxBytes) {
+            // every char needs at most three bytes, surrogate pairs four bytes for two chars
+            return value;
+        }
+        int bytes = 0;
+        int i = 0;
+        while (i < value.length()) {
+            int codePoint = value.codePointAt(i);
+            int size = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (bytes + size > maxBytes) {
+                return value.substring(0, i);
+            }
+            bytes += size;
+            i += Character.charCount(codePoint);
+        }
+        return value;
+    }
+    private static String removeControlCharacters(String value) {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isISOControl(c)) {
+                if (sb == null) {
+                    sb = new StringBuilder(value.length());
+                    sb.append(value, 0, i);
+                }
+                if (c == '\t' || c == '\n' || c == '\r') {
+                    sb.append(' ');
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? value : sb.toString();
+    }
+}
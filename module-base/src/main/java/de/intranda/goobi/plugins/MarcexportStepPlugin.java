@@ -19,55 +19,46 @@
 
 package de.intranda.goobi.plugins;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Ruleset;
 import org.goobi.beans.Step;
 import org.goobi.production.enums.PluginGuiType;
 import org.goobi.production.enums.PluginReturnValue;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
 import org.goobi.production.plugin.interfaces.IStepPluginVersion2;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.Namespace;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
 import de.sub.goobi.config.ConfigPlugins;
-import de.sub.goobi.helper.Helper;
+import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.StorageProviderInterface;
 import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.metadaten.MetadatenHelper;
 import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
-import ugh.dl.Corporate;
-import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
-import ugh.dl.Metadata;
-import ugh.dl.MetadataGroup;
-import ugh.dl.MetadataGroupType;
-import ugh.dl.MetadataType;
-import ugh.dl.Person;
 import ugh.dl.Prefs;
 import ugh.exceptions.PreferencesException;
 import ugh.exceptions.ReadException;
+import ugh.fileformats.mets.MetsMods;
 import ugh.fileformats.mets.MetsModsImportExport;
 
 @PluginImplementation
@@ -82,23 +73,20 @@ public class MarcexportStepPlugin implements IStepPluginVersion2 {
     @Getter
     private String returnPath;
 
-    private static final Namespace marc = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
-
-    private static final String SUBFIELD_NAME = "subfield";
-    private static final String CONTROLFIELD_NAME = "controlfield";
-
     private static final StorageProviderInterface storageProvider = StorageProvider.getInstance();
 
-    private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[^A-Za-z0-9]");
-
-    private transient List<MarcMetadataField> marcFields = new ArrayList<>();
-    private transient List<MarcDocstructField> docstructFields = new ArrayList<>();
+    // one engine per configured export profile
+    private transient List<MarcExportEngine> engines = new ArrayList<>();
 
-    private final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
+    // the schedulers are shared by all steps, their limits are read once from the global part of the plugin configuration
+    private static final Object SCHEDULER_LOCK = new Object();
+    private static boolean schedulersConfigured = false;
 
-    private String exportFolder;
+    // number of profiles that are exported at the same time
+    private int maxParallelProfiles;
 
-    private String identifierField;
+    // set if the configuration cannot be used, the export fails then
+    private String configurationError;
 
     @Override
     public void initialize(Step step, String returnPath) {
@@ -108,61 +96,57 @@ public class MarcexportStepPlugin implements IStepPluginVersion2 {
         SubnodeConfiguration myconfig = ConfigPlugins.getProjectAndStepConfig(title, step);
         myconfig.setExpressionEngine(new XPathExpressionEngine());
 
-        exportFolder = myconfig.getString("/exportFolder");
-        if (!exportFolder.endsWith("/")) {
-            exportFolder = exportFolder + "/";
-        }
+        configureSchedulers();
+        maxParallelProfiles = Math.max(1, myconfig.getInt("/maxParallelProfiles", 4));
 
-        identifierField = myconfig.getString("/identifierField", "CatalogIDDigital");
-
-        List<HierarchicalConfiguration> hcl = myconfig.configurationsAt("/marcField");
-        for (HierarchicalConfiguration hc : hcl) {
-            String type = hc.getString("@type", "datafield");
-            String mainTag = hc.getString("@mainTag");
-            String ind1 = hc.getString("@ind1").replace("_", " ");
-            String ind2 = hc.getString("@ind2").replace("_", " ");
-            String subTag = hc.getString("@subTag");
-            String repetitionMode = hc.getString("@reuseMode", "none");
-            String rulesetName = hc.getString("@rulesetName");
-            String additionalSubFieldCode = hc.getString("@additionalSubFieldCode");
-            String additionalSubFieldValue = hc.getString("@additionalSubFieldValue");
-            boolean anchorMetadata = hc.getBoolean("@anchorMetadata", false);
-            String conditionField = hc.getString("@conditionField", null);
-            String conditionValue = hc.getString("@conditionValue", null);
-            String conditionType = hc.getString("@conditionType", "is");
-            String text = hc.getString("@text", "");
-            String wrapperLeft = hc.getString("@wrapperLeft", null);
-            String wrapperRight = hc.getString("@wrapperRight", null);
-            String patternTemplate = hc.getString("@patternTemplate", "");
-            String patternTarget = hc.getString("@patternTarget", "");
-            String mergeSeparator = hc.getString("@mergeSeparator", null);
-            String regularExpression = hc.getString("@regularExpression", null);
-
-            Map<String, String> replacements = new HashMap<>();
-
-            List<HierarchicalConfiguration> sublist = hc.configurationsAt("/replacement");
-            for (HierarchicalConfiguration sub : sublist) {
-                replacements.put(sub.getString("@oldValue"), sub.getString("@newValue"));
+        engines = new ArrayList<>();
+        List<HierarchicalConfiguration> profiles = myconfig.configurationsAt("/profile");
+        if (profiles.isEmpty()) {
+            engines.add(new MarcExportEngine(myconfig));
+        } else {
+            for (HierarchicalConfiguration profile : profiles) {
+                engines.add(new MarcExportEngine(profile.getString("@name", ""), profile, myconfig));
             }
+        }
+        configurationError = checkConfiguration();
+    }
 
-            MarcMetadataField mmf = new MarcMetadataField(type, mainTag, ind1, ind2, subTag, repetitionMode, rulesetName, additionalSubFieldCode,
-                    additionalSubFieldValue, anchorMetadata, conditionField, conditionValue, conditionType, text, wrapperLeft, wrapperRight,
-                    patternTemplate, patternTarget, mergeSeparator, regularExpression, replacements);
-            marcFields.add(mmf);
+    /**
+     * Check the settings of all export profiles
+     *
+     * @return description of the first problem, or null if the configuration can be used
+     */
+    private String checkConfiguration() {
+        // the profiles run in parallel, two profiles in the same folder would overwrite the records of each other
+        Map<Path, String> folders = new HashMap<>();
+        for (MarcExportEngine engine : engines) {
+            if (StringUtils.isBlank(engine.getExportFolder())) {
+                return "No exportFolder configured" + (StringUtils.isBlank(engine.getName()) ? "" : " for export profile " + engine.getName());
+            }
+            Path folder = Paths.get(engine.getExportFolder()).toAbsolutePath().normalize();
+            String otherProfile = folders.putIfAbsent(folder, engine.getName());
+            if (otherProfile != null) {
+                return "The export profiles '" + otherProfile + "' and '" + engine.getName() + "' use the same exportFolder " + folder;
+            }
         }
+        return null;
+    }
 
-        hcl = myconfig.configurationsAt("/doctype");
-        for (HierarchicalConfiguration hc : hcl) {
-            boolean exportDocstruct = hc.getBoolean("@export");
-            String docstructName = hc.getString("@rulesetName");
-            String leader6 = hc.getString("@leader6");
-            String leader7 = hc.getString("@leader7");
-            String leader19 = hc.getString("@leader19");
-            String dependencyType = hc.getString("@dependencyType");
-            String dependencyMetadata = hc.getString("@dependencyMetadata");
-            String dependencyValue = hc.getString("@dependencyValue");
-            docstructFields.add(new MarcDocstructField(exportDocstruct, docstructName, leader6, leader7, leader19, dependencyType, dependencyMetadata,
-                    dependencyValue));
+    /**
+     * Configure the plugin wide schedulers with the scheduler element of the plugin configuration, outside of the project and step specific
+     * blocks. This is done only once, changed limits are used after a restart.
+     */
+    private void configureSchedulers() {
+        synchronized (SCHEDULER_LOCK) {
+            if (schedulersConfigured) {
+                return;
+            }
+            XMLConfiguration config = ConfigPlugins.getPluginConfig(title);
+            config.setExpressionEngine(new XPathExpressionEngine());
+            boolean prioritizeInteractive = config.getBoolean("/scheduler/@prioritizeInteractive", true);
+            MarcExportScheduler.getReadScheduler().configure(config.getInt("/scheduler/@maxConcurrentReads", 0), prioritizeInteractive);
+            MarcExportScheduler.getWriteScheduler().configure(config.getInt("/scheduler/@maxConcurrentWrites", 0), prioritizeInteractive);
+            schedulersConfigured = true;
         }
     }
 
@@ -209,663 +193,158 @@ public class MarcexportStepPlugin implements IStepPluginVersion2 {
 
     @Override
     public PluginReturnValue run() {
-        Prefs prefs = step.getProzess().getRegelsatz().getPreferences();
-
-        List<DocStruct> docstructList = prepareDocStructList();
-        if (docstructList == null) {
-            // error happened
+        if (configurationError != null) {
+            log.error(configurationError);
             return PluginReturnValue.ERROR;
         }
+        Prefs prefs = getPrefs();
 
-        for (DocStruct docstruct : docstructList) {
-            // 1. get identifier
-            String identifier = getIdentifierOfDocStruct(docstruct, prefs);
-
-            // 2. get currentField
-            MarcDocstructField currentField = getCurrentMarcField(docstruct);
-
-            // 3. check if exportable
-            boolean exportable = isDocStructExportable(docstruct, identifier, currentField);
-
-            // 4. use results from 1, 2, 3 to control whether to go further, hence 1 - 4 are just preparation steps
-            if (!exportable) {
-                log.debug("docstruct is not exportable");
-                continue;
-            }
-
-            // 5. start to prepare the MARC document
-            Document marcDoc = new Document();
-            Element recordElement = new Element("record", marc);
-            marcDoc.setRootElement(recordElement);
-
-            Element leaderElement = new Element("leader", marc);
-            StringBuilder leader = createLeader(currentField);
-            leaderElement.setText(leader.toString());
-            recordElement.addContent(leaderElement);
-
-            Element marcField = null;
-            Metadata firstPersonOrCorporate = null;
-            // there should be ONLY ONE main entry, either Person or Corporate, but NOT both
-            boolean firstPersonOrCorporateWritten = false;
-            for (MarcMetadataField configuredField : marcFields) {
-                String type = configuredField.getRulesetName();
-                // condition type
-                MetadataType conditionType = null;
-                if (StringUtils.isNotBlank(configuredField.getConditionField())) {
-                    conditionType = prefs.getMetadataTypeByName(configuredField.getConditionField());
-                }
-
-                /*
-                 * REMARKS ON MARC:
-                 *      1. Fields beginning with a 1 are referred to as main entry fields, and there should be ONLY ONE of them in each MARC record.
-                 *      1.1. Person - 100
-                 *      1.2. Corporate - 110
-                 * 
-                 *      2. Fields beginning with a 7 are used to provide additional access to the manifestation being cataloged.
-                 *      2.1. Person - 700
-                 *      2.2. Corporate - 710
-                 */
-                // write metadata according to actual types
-                if (type == null) {
-                    // static text, not metadata
-                    marcField = writeMetadataGeneral(docstruct, recordElement, marcField, configuredField, null, conditionType);
-                } else if ("group".equals(configuredField.getReuseMode())) {
-                    // metadata groups
-                    MetadataGroupType mgt = prefs.getMetadataGroupTypeByName(type);
-                    List<MetadataGroup> grps = docstruct.getAllMetadataGroupsByType(mgt);
-                    for (MetadataGroup grp : grps) {
-                        // generate new main field
-                        String groupName = mgt.getName() + "/";
-                        if (StringUtils.isBlank(configuredField.getMergeSeparator()) || !isMarcFieldReusable(marcField, configuredField)) {
-                            marcField = createMainElement(recordElement, configuredField);
-                        }
-                        for (MarcMetadataField field : marcFields) {
-                            if (StringUtils.isNotBlank(field.getRulesetName()) && field.getRulesetName().startsWith(groupName)
-                                    && field.getMarcMainTag().equals(configuredField.getMarcMainTag())) {
-                                String metadataName = field.getRulesetName().replace(groupName, "");
-                                for (Metadata md : grp.getMetadataList()) {
-                                    if (md.getType().getName().equals(metadataName)) {
-                                        marcField = writeMetadataGeneral(docstruct, recordElement, marcField, field, md, conditionType);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                } else {
-                    MetadataType mdt = prefs.getMetadataTypeByName(type);
-                    if (mdt != null) {
-                        List<? extends Metadata> list = getMetadataListGeneral(docstruct, configuredField, mdt);
-
-                        if (list != null) {
-                            for (Metadata md : list) {
-                                // check if we should call writeMetadataGeneral, which depends on mdt
-                                int writeCode = getMetadataWriteCode(configuredField, mdt, firstPersonOrCorporate, md, firstPersonOrCorporateWritten);
-                                if (writeCode < 0) {
-                                    continue;
-                                }
-
-                                marcField = writeMetadataGeneral(docstruct, recordElement, marcField, configuredField, md, conditionType);
-
-                                if (writeCode == 100 || writeCode == 110 || writeCode == 111 || writeCode == 130) {
-                                    // first Person or first Corporate found
-                                    firstPersonOrCorporate = md;
-                                    firstPersonOrCorporateWritten = true;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+        MarcExportScheduler readScheduler = MarcExportScheduler.getReadScheduler();
 
-            // 6. save the MARC file
-            XMLOutputter out = new XMLOutputter();
-            out.setFormat(Format.getPrettyFormat());
-            try {
-                Path outputFolder = Paths.get(exportFolder, "" + step.getProzess().getId());
-                if (!storageProvider.isDirectory(outputFolder)) {
-                    storageProvider.createDirectories(outputFolder);
-                }
-                out.output(marcDoc, new FileOutputStream(exportFolder + step.getProzess().getId() + "/" + identifier + ".xml"));
-            } catch (IOException e) {
-                log.error(e);
-                return PluginReturnValue.ERROR;
-            }
+        Fileformat ff;
+        long readTime;
+        try (MarcExportScheduler.Permit permit = readScheduler.acquire(getProjectName(), isInteractive())) {
+            long start = System.nanoTime();
+            ff = getFileformat(prefs);
+            readTime = System.nanoTime() - start;
+        } catch (InterruptedException e) {
+            log.error(e);
+            Thread.currentThread().interrupt();
+            return PluginReturnValue.ERROR;
         }
-        log.info("Marcexport step plugin executed");
-
-        return PluginReturnValue.FINISH;
-    }
-
-    private List<DocStruct> prepareDocStructList() {
-        Fileformat ff = getFileformat(); // only used to create the docstructList
         if (ff == null) {
             // log error message
-            return null; // NOSONAR
-        }
-
-        try {
-            DocStruct docstruct = ff.getDigitalDocument().getLogicalDocStruct();
-
-            if (!isIdentifierExistsInDocStruct(docstruct)) {
-                Helper.setFehlerMeldung("Missing identifier metadata");
-                return null; // NOSONAR
-            }
-
-            List<DocStruct> docstructList = new ArrayList<>();
-
-            docstructList.add(docstruct);
-            if (docstruct.getType().isAnchor()) {
-                docstructList.add(docstruct.getAllChildren().get(0));
-            }
-
-            return docstructList;
-
-        } catch (PreferencesException e1) {
-            log.error(e1);
-            return null; // NOSONAR
+            return PluginReturnValue.ERROR;
         }
+        return export(ff, prefs, readTime);
     }
 
-    private boolean isIdentifierExistsInDocStruct(DocStruct docstruct) {
-        for (Metadata md : docstruct.getAllMetadata()) {
-            if (md.getType().isIdentifier()) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private String getIdentifierOfDocStruct(DocStruct docstruct, Prefs prefs) {
-        String identifier = null;
-
-        List<? extends Metadata> identifierList = docstruct.getAllMetadataByType(prefs.getMetadataTypeByName(identifierField));
-        if (identifierList != null) {
-            identifier = identifierList.get(0).getValue();
-        }
-
-        return identifier;
-    }
-
-    private MarcDocstructField getCurrentMarcField(DocStruct docstruct) {
-        String typeName = docstruct.getType().getName();
-        for (MarcDocstructField field : docstructFields) {
-            if (typeName.equals(field.getDocstructName())) {
-                return field;
-            }
+    /**
+     * Export an already loaded METS file of the process. Steps or scripts that have the Fileformat of the process in memory can call this method
+     * after {@link #initialize(Step, String)} instead of {@link #run()} to avoid reading meta.xml again.
+     *
+     * @param ff loaded METS file of the process
+     * @param prefs ruleset of the process
+     * @return FINISH if all profiles were exported, ERROR otherwise
+     */
+    public PluginReturnValue run(Fileformat ff, Prefs prefs) {
+        if (configurationError != null) {
+            log.error(configurationError);
+            return PluginReturnValue.ERROR;
         }
-
-        return null;
+        return export(ff, prefs, 0);
     }
 
-    private boolean isDocStructExportable(DocStruct docstruct, String identifier, MarcDocstructField currentField) {
-        return StringUtils.isNotBlank(identifier) && currentField != null && currentField.isExportDocstruct()
-                && isFieldDependencyFulfilled(docstruct, currentField);
-    }
-
-    private boolean isFieldDependencyFulfilled(DocStruct docstruct, MarcDocstructField currentField) {
-        if (StringUtils.isBlank(currentField.getDependencyType())) {
-            return true;
-        }
+    private PluginReturnValue export(Fileformat ff, Prefs prefs, long readTime) {
+        MarcExportScheduler readScheduler = MarcExportScheduler.getReadScheduler();
+        MarcExportScheduler writeScheduler = MarcExportScheduler.getWriteScheduler();
 
-        DocStruct dsToCheck = null;
-        if (docstruct.getType().isAnchor()) {
-            if ("anchor".equals(currentField.getDependencyType())) {
-                dsToCheck = docstruct;
-            } else {
-                dsToCheck = docstruct.getAllChildren().get(0);
+        // the metadata of each docstruct is indexed only once and shared by all profiles
+        MetadataIndex metadataIndex = new MetadataIndex();
+        MarcRecordContext processContext =
+                new MarcRecordContext(String.valueOf(step.getProzess().getId()), step.getProzess().getTitel(), ZonedDateTime.now());
+        List<Boolean> results;
+        if (engines.size() == 1 || maxParallelProfiles == 1) {
+            results = new ArrayList<>();
+            for (MarcExportEngine engine : engines) {
+                results.add(exportProfile(engine, ff, prefs, metadataIndex, processContext, readTime));
             }
-        } else if ("anchor".equals(currentField.getDependencyType())) {
-            dsToCheck = docstruct.getParent();
         } else {
-            dsToCheck = docstruct;
-        }
-
-        String dependencyType = currentField.getDependencyMetadata();
-        String dependencyValue = currentField.getDependencyValue();
-        for (Metadata md : dsToCheck.getAllMetadata()) {
-            if (md.getType().getName().equals(dependencyType) && md.getValue().equals(dependencyValue)) {
-                // metadata found and its value matches
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    private int getMetadataWriteCode(MarcMetadataField configuredField, MetadataType mdt, Metadata firstMetadata, Metadata currentMetadata,
-            boolean firstPersonOrCorporateWritten) {
-        String marcMainTag = configuredField.getMarcMainTag();
-        switch (marcMainTag) {
-            case "100":
-            case "110":
-            case "111":
-            case "130":
-            case "700":
-            case "710":
-            case "711":
-            case "730":
-                if (firstPersonOrCorporateWritten) {
-                    boolean sameFirst = firstMetadata != null;
-                    if (mdt.getIsPerson()) {
-                        sameFirst = sameFirst && firstMetadata instanceof Person && ((Person) firstMetadata).equals((Person) currentMetadata);
-                    } else if (mdt.isCorporate()) {
-                        sameFirst = sameFirst && firstMetadata instanceof Corporate && ((Corporate) firstMetadata).equals(currentMetadata);
-                    }
-                    // -1 means that this Metadata should not be written
-                    // 710 means that this is an additional Corporate and can be written
-                    // 700 means that this is an additional Person and can be written
-                    if (sameFirst) {
-                        return -1;
-                    } else if ("700".equals(marcMainTag)) {
-                        return 700;
-                    } else if ("710".equals(marcMainTag)) {
-                        return 710;
-                    } else if ("711".equals(marcMainTag)) {
-                        return 711;
-                    } else if ("730".equals(marcMainTag)) {
-                        return 730;
-                    } else {
-                        return -1;
-                    }
+            // the profiles wait for scheduler permits and write files, so they get their own threads instead of the common pool
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(engines.size(), maxParallelProfiles));
+            try {
+                List<Future<Boolean>> futures = new ArrayList<>();
+                for (MarcExportEngine engine : engines) {
+                    futures.add(executor.submit(() -> exportProfile(engine, ff, prefs, metadataIndex, processContext, readTime)));
                 }
-
-                // 110 means that this is the first Corporate and can be written
-                // 100 means that this is the first Person and can be written
-
-                if ("100".equals(marcMainTag)) {
-                    return 100;
-                } else if ("110".equals(marcMainTag)) {
-                    return 110;
-                } else if ("111".equals(marcMainTag)) {
-                    return 111;
-                } else if ("130".equals(marcMainTag)) {
-                    return 130;
-                } else {
-                    return -1;
+                results = new ArrayList<>();
+                for (Future<Boolean> future : futures) {
+                    results.add(future.get());
                 }
-            default:
-                return 0;
-
-        }
-    }
-
-    private Element writeMetadataGeneral(DocStruct docstruct, Element recordElement, Element marcField, MarcMetadataField configuredField,
-            Metadata md, MetadataType conditionType) {
-        // configured condition, check if they match
-        if (conditionType != null) {
-            boolean match = checkConditions(docstruct, configuredField, conditionType);
-            if (!match) {
-                return marcField;
-            }
-        }
-
-        marcField = generateMarcField(recordElement, marcField, configuredField);
-
-        String marcFieldText = getWrappedMarcFieldText(configuredField, md);
-        if (configuredField.getReplacements().containsKey(marcFieldText)) {
-            marcFieldText = configuredField.getReplacements().get(marcFieldText);
-        }
-
-        Element elementToSetText;
-        String mergeSeparator = configuredField.getMergeSeparator();
-        // The controlfield-check was not there for Person and Corporation, but I think it should be. - Zehong
-        if (mergeSeparator != null && (elementToSetText = getElementToSetText(marcField, configuredField)) != null) {
-
-            String mergedText = getMergedText(elementToSetText.getText(), mergeSeparator, marcFieldText);
-            elementToSetText.setText(mergedText);
-
-        } else if (CONTROLFIELD_NAME.equals(configuredField.getFieldType())) {
-            marcField.setText(marcFieldText);
-
-        } else { // no need to merge or there is still no proper subfield available yet
-            Element subfield = new Element(SUBFIELD_NAME, marc);
-            subfield.setAttribute("code", configuredField.getMarcSubTag());
-            subfield.setText(marcFieldText);
-            marcField.addContent(subfield);
-
-            // The following X-check block was not there for Person and Corporation, but I think it should be. - Zehong
-            if ("X".equals(marcField.getAttributeValue("ind2"))) {
-                // sorting title
-                int ind2Value = getSortingTitleNumber(marcFieldText);
-                marcField.setAttribute("ind2", "" + ind2Value);
-            }
-        }
-
-        // additional subfield
-        if (StringUtils.isNotBlank(configuredField.getAdditionalSubFieldCode())) {
-            Element subfield = new Element(SUBFIELD_NAME, marc);
-            subfield.setAttribute("code", configuredField.getAdditionalSubFieldCode());
-            subfield.setText(configuredField.getAdditionalSubFieldValue());
-            marcField.addContent(subfield);
-        }
-
-        return marcField;
-    }
-
-    private Element getElementToSetText(Element marcField, MarcMetadataField configuredField) {
-        if (CONTROLFIELD_NAME.equals(configuredField.getFieldType())) {
-            return marcField;
-        }
-        Element lastMatchingSubfield = null;
-        for (Element el : marcField.getChildren()) {
-            if (configuredField.getMarcSubTag().equals(el.getAttributeValue("code"))) {
-                lastMatchingSubfield = el;
+            } catch (InterruptedException e) {
+                log.error(e);
+                Thread.currentThread().interrupt();
+                return PluginReturnValue.ERROR;
+            } catch (ExecutionException e) {
+                log.error(e);
+                return PluginReturnValue.ERROR;
+            } finally {
+                executor.shutdownNow();
             }
         }
-        return lastMatchingSubfield;
-    }
-
-    private String getMergedText(String oldText, String separator, String newText) {
-        if (StringUtils.isBlank(oldText)) {
-            return newText;
-        }
-
-        return oldText + (StringUtils.isBlank(separator) ? " " : separator.replace("\\u0020", " ")) + newText;
-    }
-
-    private List<? extends Metadata> getMetadataListGeneral(DocStruct docstruct, MarcMetadataField configuredField, MetadataType mdt) {
-        // Person
-        if (mdt.getIsPerson()) {
-            return docstruct.getAllPersonsByType(mdt);
-        }
-
-        // Corporate
-        if (mdt.isCorporate()) {
-            return docstruct.getAllCorporatesByType(mdt);
-        }
-
-        // other Metadata, which is not anchor
-        if (!configuredField.isAnchorMetadata()) {
-            return docstruct.getAllMetadataByType(mdt);
-        }
-
-        // anchor metadata
-        if (docstruct.getParent() != null) {
-            return docstruct.getParent().getAllMetadataByType(mdt);
-        }
-
-        return Collections.emptyList();
-    }
-
-    private String getMarcFieldTextFromMetadata(Metadata md) {
-        if (md instanceof Corporate) {
-            return ((Corporate) md).getMainName();
+        if (results.contains(Boolean.FALSE)) {
+            return PluginReturnValue.ERROR;
         }
 
-        if (md instanceof Person) {
-            Person p = (Person) md;
-            return p.getLastname() + ", " + p.getFirstname();
-        }
-
-        // normal metadata
-        return md.getValue();
-    }
-
-    private Element generateMarcField(Element recordElement, Element marcField, MarcMetadataField configuredField) {
-        if ("none".equals(configuredField.getReuseMode())) {
-            marcField = createMainElement(recordElement, configuredField);
-
-        } else if (isMarcFieldReusable(marcField, configuredField)) {
-            // re-use field
-
-        } else {
-            marcField = createMainElement(recordElement, configuredField);
+        if (readScheduler.isLimited() || writeScheduler.isLimited()) {
+            log.debug(readScheduler.getStatistics());
+            log.debug(writeScheduler.getStatistics());
         }
+        log.info("Marcexport step plugin executed");
 
-        return marcField;
+        return PluginReturnValue.FINISH;
     }
 
-    private boolean isMarcFieldReusable(Element marcField, MarcMetadataField configuredField) {
-        return CONTROLFIELD_NAME.equals(configuredField.getFieldType()) ? isMarcControlFieldReusable(marcField, configuredField)
-                : isMarcDataFieldReusable(marcField, configuredField);
+    /**
+     * Create, validate and save all records of one export profile
+     *
+     * @return false if the export of the profile failed, true otherwise
+     */
+    private boolean exportProfile(MarcExportEngine engine, Fileformat ff, Prefs prefs, MetadataIndex metadataIndex,
+            MarcRecordContext processContext, long readTime) {
+        MarcProfileExporter exporter =
+                new MarcProfileExporter(engine, String.valueOf(step.getProzess().getId()), getProjectName(), isInteractive(), readTime);
+        return exporter.export(ff, prefs, metadataIndex, processContext);
     }
 
-    private boolean isMarcControlFieldReusable(Element marcField, MarcMetadataField configuredField) {
-        return marcField != null && marcField.getAttributeValue("tag").equals(configuredField.getMarcMainTag());
+    private String getProjectName() {
+        return step.getProzess().getProjekt().getTitel();
     }
 
-    private boolean isMarcDataFieldReusable(Element marcField, MarcMetadataField configuredField) {
-        return marcField != null && marcField.getAttributeValue("tag").equals(configuredField.getMarcMainTag())
-                && configuredField.getInd1().equals(marcField.getAttributeValue("ind1"))
-                && ("X".equals(configuredField.getInd2()) || configuredField.getInd2().equals(marcField.getAttributeValue("ind2")));
+    /**
+     * Exports of manual steps are started by a user, automatic steps are part of a bulk workflow
+     */
+    private boolean isInteractive() {
+        return !step.isTypAutomatisch();
     }
 
-    private String getWrappedMarcFieldText(MarcMetadataField configuredField, Metadata md) {
-        String marcFieldText = md == null ? configuredField.getStaticText() : getMarcFieldTextFromMetadata(md);
-        if ("{date}".equals(marcFieldText)) {
-            marcFieldText = formatter.format(new Date());
-        }
-        // check pattern
-        if (StringUtils.isNoneBlank(configuredField.getPatternTemplate(), configuredField.getPatternTarget())) {
-            marcFieldText = getPatternTargetFromText(marcFieldText, configuredField.getPatternTemplate(), configuredField.getPatternTarget());
-        }
-
-        if (StringUtils.isNotBlank(configuredField.getRegularExpression())) {
-            List<String> params = MetsModsImportExport.splitRegularExpression(configuredField.getRegularExpression());
-            marcFieldText = marcFieldText.replaceAll(params.get(0), params.get(1));
-        }
-
-        String left = configuredField.getWrapperLeft();
-        String right = configuredField.getWrapperRight();
-        if (left == null) {
-            left = "";
-        } else if (StringUtils.isEmpty(left)) {
-            left = " ";
-        }
-        if (right == null) {
-            right = "";
-        } else if (StringUtils.isEmpty(right)) {
-            right = " ";
-        }
-
-        return left.replace("\\u0020", " ") + marcFieldText + right.replace("\\u0020", " ");
-    }
-
-    private String getPatternTargetFromText(String text, String template, String target) {
-        String textCopy = text;
-
-        Matcher matcher = SEPARATOR_PATTERN.matcher(template);
-        while (matcher.find()) {
-            String separator = matcher.group();
-            int splitIndexTemplate = template.indexOf(separator);
-            int splitIndexText = textCopy.indexOf(separator);
-            if (splitIndexText < 0) {
-                // pattern template is not correctly configured
-                log.error("Unknown separator " + separator + " in the text. @patternTemplate may be incorrect.");
-                return text;
-            }
-
-            String key = template.substring(0, splitIndexTemplate);
-            if (target.equals(key)) {
-                // match found
-                return textCopy.substring(0, splitIndexText);
-            }
-
-            // not a match yet, update template and textCopy
-            template = template.substring(splitIndexTemplate + 1);
-            textCopy = textCopy.substring(splitIndexText + 1);
-        }
-
-        // return the original text if no match found
-        return target.equals(template) ? textCopy : text;
-    }
-
-    private boolean checkConditions(DocStruct docstruct, MarcMetadataField configuredField, MetadataType conditionType) {
-        // filter out a list of Metadata whose elements are all of conditionType
-        List<? extends Metadata> conditionList = null;
-        if (configuredField.isAnchorMetadata()) {
-            if (docstruct.getParent() != null) {
-                conditionList = docstruct.getParent().getAllMetadataByType(conditionType);
-            } else {
-                return false;
+    /**
+     * Get the ruleset of the process from the plugin wide cache, so that back-to-back exports on the same ruleset parse it only once
+     */
+    private Prefs getPrefs() {
+        Ruleset ruleset = step.getProzess().getRegelsatz();
+        Path rulesetFile = Paths.get(ConfigurationHelper.getInstance().getRulesetFolder(), ruleset.getDatei());
+        if (storageProvider.isFileExists(rulesetFile)) {
+            try {
+                return MarcExportRulesetCache.getRuleset(rulesetFile).getPrefs();
+            } catch (PreferencesException | IOException e) {
+                log.error(e);
             }
-        } else {
-            conditionList = docstruct.getAllMetadataByType(conditionType);
-        }
-
-        if (conditionList == null || conditionList.isEmpty()) {
-            // nothing found
-            return false;
-        }
-
-        // look for a match
-        boolean match = false;
-        for (Metadata md : conditionList) {
-            match = match || isMetadataAMatch(md, configuredField);
-        }
-        return match;
-    }
-
-    private boolean isMetadataAMatch(Metadata md, MarcMetadataField configuredField) {
-        switch (configuredField.getConditionType()) {
-            case "is":
-                return md.getValue().equals(configuredField.getConditionValue());
-            case "not":
-                return !md.getValue().equals(configuredField.getConditionValue());
-            case "matches":
-                return md.getValue().matches(configuredField.getConditionValue());
-            case "any":
-                return true;
-            default:
-                return false;
         }
+        return ruleset.getPreferences();
     }
 
-    private int getSortingTitleNumber(String value) {
-        if (value.startsWith("A ")) {
-            return 2;
-        } else if (value.startsWith("An ")) {
-            return 3;
-        } else if (value.startsWith("Das ")) {
-            return 4;
-        } else if (value.startsWith("De ")) {
-            return 3;
-        } else if (value.startsWith("Dem ")) {
-            return 4;
-        } else if (value.startsWith("Den ")) {
-            return 4;
-        } else if (value.startsWith("Der ")) {
-            return 4;
-        } else if (value.startsWith("Des ")) {
-            return 4;
-        } else if (value.startsWith("Die ")) {
-            return 4;
-        } else if (value.startsWith("Een ")) {
-            return 4;
-        } else if (value.startsWith("Ein ")) {
-            return 4;
-        } else if (value.startsWith("Eine ")) {
-            return 5;
-        } else if (value.startsWith("Einem ")) {
-            return 6;
-        } else if (value.startsWith("Einen ")) {
-            return 6;
-        } else if (value.startsWith("Einer ")) {
-            return 6;
-        } else if (value.startsWith("Eines ")) {
-            return 6;
-        } else if (value.startsWith("El ")) {
-            return 3;
-        } else if (value.startsWith("En ")) {
-            return 3;
-        } else if (value.startsWith("Et ")) {
-            return 3;
-        } else if (value.startsWith("Gli ")) {
-            return 4;
-        } else if (value.startsWith("Het ")) {
-            return 4;
-        } else if (value.startsWith("I ")) {
-            return 2;
-        } else if (value.startsWith("Il ")) {
-            return 3;
-        } else if (value.startsWith("L' ")) {
-            return 3;
-        } else if (value.startsWith("La ")) {
-            return 3;
-        } else if (value.startsWith("Las ")) {
-            return 4;
-        } else if (value.startsWith("Le ")) {
-            return 3;
-        } else if (value.startsWith("Les ")) {
-            return 4;
-        } else if (value.startsWith("Lo ")) {
-            return 3;
-        } else if (value.startsWith("Los ")) {
-            return 4;
-        } else if (value.startsWith("The ")) {
-            return 4;
-        } else if (value.startsWith("Un ")) {
-            return 3;
-        } else if (value.startsWith("Un' ")) {
-            return 4;
-        } else if (value.startsWith("Una ")) {
-            return 4;
-        } else if (value.startsWith("Unas ")) {
-            return 5;
-        } else if (value.startsWith("Une ")) {
-            return 4;
-        } else if (value.startsWith("Uno ")) {
-            return 4;
-        } else if (value.startsWith("Unos ")) {
-            return 5;
-        }
-
-        return 0;
-    }
-
-    private StringBuilder createLeader(MarcDocstructField docstruct) {
-        StringBuilder leader = new StringBuilder();
-        leader.append("xxxxx"); // 00-04 - Record length, empty
-        leader.append("n"); // 05 - Record status, n=new
-        if (StringUtils.isNotBlank(docstruct.getLeader6())) {
-            leader.append(docstruct.getLeader6());
-        } else {
-            leader.append("a"); // 06 - Type of record, a - Language material
-        }
-        // 07 - Bibliographic level
-        if (StringUtils.isNotBlank(docstruct.getLeader7())) {
-            leader.append(docstruct.getLeader7());
-        } else {
-            leader.append("m"); // Monograph/Item
-        }
-        leader.append(" "); // 08 - Type of control - empty
-        leader.append("a"); //09 - Character coding scheme
-        leader.append("2"); //10 - Indicator count
-
-        leader.append("2"); // 11 - Subfield code count
-        leader.append("yyyyy"); // 12-16 - Base address of data
-        leader.append("u");// 17 - Encoding level u - Unknown
-        leader.append("u"); // 18 - Descriptive cataloging form u - Unknown
-        // 19 - Multipart resource record level
-        if (StringUtils.isNotBlank(docstruct.getLeader19())) {
-            leader.append(docstruct.getLeader19());
-        } else {
-            leader.append(" ");
-        }
-        // 20 - Length of the length-of-field portion
-        // 21 - Length of the starting-character-position portion
-        // 22 - Length of the implementation-defined portion
-        // 23 - Undefined
-        leader.append("4500");
-        return leader;
-    }
-
-    private Element createMainElement(Element rootElement, MarcMetadataField configuredField) {
-        Element element = new Element(configuredField.getFieldType(), marc);
-        element.setAttribute("tag", configuredField.getMarcMainTag());
-        if ("datafield".equals(configuredField.getFieldType())) {
-            element.setAttribute("ind1", configuredField.getInd1());
-            element.setAttribute("ind2", configuredField.getInd2());
-        }
-        rootElement.addContent(element);
-        return element;
-    }
-
-    private Fileformat getFileformat() {
+    /**
+     * Read meta.xml with the cached ruleset, so that the ruleset is not parsed again for each process. Other file formats are read by the process.
+     */
+    private Fileformat getFileformat(Prefs prefs) {
         try {
+            String metadataFile = step.getProzess().getMetadataFilePath();
+            if (storageProvider.isFileExists(Paths.get(metadataFile))) {
+                String type = MetadatenHelper.getMetaFileType(metadataFile);
+                Fileformat ff = null;
+                if ("mets".equals(type)) {
+                    ff = new MetsMods(prefs);
+                } else if ("metsmods".equals(type)) {
+                    ff = new MetsModsImportExport(prefs);
+                }
+                if (ff != null) {
+                    ff.read(metadataFile);
+                    return ff;
+                }
+            }
             return step.getProzess().readMetadataFile();
-        } catch (ReadException | IOException | SwapException e) {
+        } catch (ReadException | PreferencesException | IOException | SwapException e) {
             log.error(e);
         }
         return null;
@@ -0,0 +1,99 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ugh.dl.Corporate;
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataGroup;
+import ugh.dl.Person;
+
+/**
+ * Index of the metadata of docstructs by type name. Each docstruct is indexed once on first access, so that all rules and all export profiles
+ * can look up their values without iterating the metadata lists of the docstruct again. The index is safe to be shared between threads.
+ */
+public class MetadataIndex {
+
+    private final Map<DocStruct, Entry> entries = new IdentityHashMap<>();
+
+    /**
+     * Get the index of a docstruct, the docstruct is indexed on first access
+     *
+     * @param docstruct docstruct to index
+     * @return index entry of the docstruct
+     */
+    public synchronized Entry get(DocStruct docstruct) {
+        return entries.computeIfAbsent(docstruct, Entry::new);
+    }
+
+    public static class Entry {
+
+        private final Map<String, List<Metadata>> metadata = new HashMap<>();
+        private final Map<String, List<Person>> persons = new HashMap<>();
+        private final Map<String, List<Corporate>> corporates = new HashMap<>();
+        private final Map<String, List<MetadataGroup>> groups = new HashMap<>();
+
+        private Entry(DocStruct docstruct) {
+            if (docstruct.getAllMetadata() != null) {
+                for (Metadata md : docstruct.getAllMetadata()) {
+                    metadata.computeIfAbsent(md.getType().getName(), k -> new ArrayList<>()).add(md);
+                }
+            }
+            if (docstruct.getAllPersons() != null) {
+                for (Person p : docstruct.getAllPersons()) {
+                    persons.computeIfAbsent(p.getType().getName(), k -> new ArrayList<>()).add(p);
+                }
+            }
+            if (docstruct.getAllCorporates() != null) {
+                for (Corporate c : docstruct.getAllCorporates()) {
+                    corporates.computeIfAbsent(c.getType().getName(), k -> new ArrayList<>()).add(c);
+                }
+            }
+            if (docstruct.getAllMetadataGroups() != null) {
+                for (MetadataGroup grp : docstruct.getAllMetadataGroups()) {
+                    groups.computeIfAbsent(grp.getType().getName(), k -> new ArrayList<>()).add(grp);
+                }
+            }
+        }
+
+        public List<Metadata> getMetadata(String typeName) {
+            return metadata.getOrDefault(typeName, Collections.emptyList());
+        }
+
+        public List<Person> getPersons(String typeName) {
+            return persons.getOrDefault(typeName, Collections.emptyList());
+        }
+
+        public List<Corporate> getCorporates(String typeName) {
+            return corporates.getOrDefault(typeName, Collections.emptyList());
+        }
+
+        public List<MetadataGroup> getGroups(String typeName) {
+            return groups.getOrDefault(typeName, Collections.emptyList());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * This file is part of a plugin for Goobi - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of non-filing articles that is used to calculate the second indicator of title fields. The articles are compiled into prefix tries, one
+ * general trie and optionally one trie per language, so that the number of non-filing characters is found in a single scan of the first characters
+ * of a title.
+ * 
+ * An article ending with an apostrophe like L' matches directly in front of the next word, all other articles must be followed by a blank. A
+ * following blank is counted as non-filing character in both cases.
+ */
+public class NonFilingArticleTable {
+
+    private static final String[] DEFAULT_ARTICLES = { "A", "An", "Das", "De", "Dem", "Den", "Der", "Des", "Die", "Een", "Ein", "Eine", "Einem",
+            "Einen", "Einer", "Eines", "El", "En", "Et", "Gli", "Het", "I", "Il", "L'", "La", "Las", "Le", "Les", "Lo", "Los", "The", "Un", "Un'", "Una",
+            "Unas", "Une", "Uno", "Unos" };
+
+    // the second indicator can only hold a single digit
+    private static final int MAX_NON_FILING_CHARACTERS = 9;
+
+    private final boolean ignoreCase;
+
+    private final Node generalRoot = new Node();
+
+    private final Map<String, Node> languageRoots = new HashMap<>();
+
+    public NonFilingArticleTable(boolean ignoreCase) {
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Create the table with the articles that were used before the table became configurable
+     *
+     * @return table with common articles of several european languages
+     */
+    public static NonFilingArticleTable createDefault() {
+        NonFilingArticleTable table = new NonFilingArticleTable(false);
+        for (String article : DEFAULT_ARTICLES) {
+            table.addArticle(null, article);
+        }
+        return table;
+    }
+
+    /**
+     * Add an article to the table
+     *
+     * @param language language code as used in the metadata of the record, or null if the article is valid for all languages
+     * @param article the article without a following blank
+     */
+    public void addArticle(String language, String article) {
+        if (article == null || article.trim().isEmpty()) {
+            return;
+        }
+        Node node = language == null ? generalRoot : languageRoots.computeIfAbsent(language, k -> new Node());
+        String value = article.trim();
+        for (int i = 0; i < value.length(); i++) {
+            node = node.children.computeIfAbsent(normalizeCharacter(value.charAt(i)), k -> new Node());
+        }
+        node.article = true;
+        node.apostrophe = isApostrophe(value.charAt(value.length() - 1));
+    }
+
+    /**
+     * Get the number of non-filing characters of a title
+     *
+     * @param title the title
+     * @param language language of the record, can be null. If articles are configured for this language, only these are used, otherwise the
+     *            general articles are used.
+     * @return number of non-filing characters, 0 if the title does not start with an article
+     */
+    public int getNonFilingCount(String title, String language) {
+        if (title == null || title.isEmpty()) {
+            return 0;
+        }
+        Node node = generalRoot;
+        if (language != null && languageRoots.containsKey(language)) {
+            node = languageRoots.get(language);
+        }
+
+        int result = 0;
+        for (int i = 0; i < title.length(); i++) {
+            node = node.children.get(normalizeCharacter(title.charAt(i)));
+            if (node == null) {
+                break;
+            }
+            if (node.article) {
+                int end = i + 1;
+                boolean followedByBlank = end < title.length() && title.charAt(end) == ' ';
+                if (followedByBlank) {
+                    result = end + 1;
+                } else if (node.apostrophe && end < title.length()) {
+                    result = end;
+                }
+            }
+        }
+        return Math.min(result, MAX_NON_FILING_CHARACTERS);
+    }
+
+    private char normalizeCharacter(char c) {
+        if (isApostrophe(c)) {
+            return '\'';
+        }
+        return ignoreCase ? Character.toLowerCase(c) : c;
+    }
+
+    private static boolean isApostrophe(char c) {
+        return c == '\'' || c == '\u2019' || c == '\u02BC' || c == '\u00B4' || c == '`';
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>(4);
+        private boolean article;
+        private boolean apostrophe;
+    }
+}
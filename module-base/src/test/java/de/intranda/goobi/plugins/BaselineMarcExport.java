@@ -0,0 +1,833 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NonNull;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.Corporate;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataGroup;
+import ugh.dl.MetadataGroupType;
+import ugh.dl.MetadataType;
+import ugh.dl.Person;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.fileformats.mets.MetsModsImportExport;
+
+/**
+ * Frozen copy of the mapping of the first version of the step plugin, used as reference by {@link MarcexportEquivalenceTest}. The code is
+ * intentionally not shared with {@link MarcExportEngine} and must not be changed together with it; only the plugin life cycle was removed, the
+ * records are returned instead of written into the export folder and the export date is passed in.
+ */
+@Log4j2
+public class BaselineMarcExport {
+
+    private static final Namespace marc = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    private static final String SUBFIELD_NAME = "subfield";
+    private static final String CONTROLFIELD_NAME = "controlfield";
+
+    private static final Pattern SEPARATOR_PATTERN = Pattern.compile("[^A-Za-z0-9]");
+
+    private List<FieldRule> marcFields = new ArrayList<>();
+    private List<DocstructRule> docstructFields = new ArrayList<>();
+
+    private final SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
+
+    private String identifierField;
+
+    private Date exportDate;
+
+    /**
+     * Read the rules of a configuration block
+     *
+     * @param myconfig configuration block with XPath expression engine
+     */
+    public BaselineMarcExport(HierarchicalConfiguration myconfig) {
+        identifierField = myconfig.getString("/identifierField", "CatalogIDDigital");
+
+        List<HierarchicalConfiguration> hcl = myconfig.configurationsAt("/marcField");
+        for (HierarchicalConfiguration hc : hcl) {
+            String type = hc.getString("@type", "datafield");
+            String mainTag = hc.getString("@mainTag");
+            String ind1 = hc.getString("@ind1").replace("_", " ");
+            String ind2 = hc.getString("@ind2").replace("_", " ");
+            String subTag = hc.getString("@subTag");
+            String repetitionMode = hc.getString("@reuseMode", "none");
+            String rulesetName = hc.getString("@rulesetName");
+            String additionalSubFieldCode = hc.getString("@additionalSubFieldCode");
+            String additionalSubFieldValue = hc.getString("@additionalSubFieldValue");
+            boolean anchorMetadata = hc.getBoolean("@anchorMetadata", false);
+            String conditionField = hc.getString("@conditionField", null);
+            String conditionValue = hc.getString("@conditionValue", null);
+            String conditionType = hc.getString("@conditionType", "is");
+            String text = hc.getString("@text", "");
+            String wrapperLeft = hc.getString("@wrapperLeft", null);
+            String wrapperRight = hc.getString("@wrapperRight", null);
+            String patternTemplate = hc.getString("@patternTemplate", "");
+            String patternTarget = hc.getString("@patternTarget", "");
+            String mergeSeparator = hc.getString("@mergeSeparator", null);
+            String regularExpression = hc.getString("@regularExpression", null);
+
+            Map<String, String> replacements = new HashMap<>();
+
+            List<HierarchicalConfiguration> sublist = hc.configurationsAt("/replacement");
+            for (HierarchicalConfiguration sub : sublist) {
+                replacements.put(sub.getString("@oldValue"), sub.getString("@newValue"));
+            }
+
+            FieldRule mmf = new FieldRule(type, mainTag, ind1, ind2, subTag, repetitionMode, rulesetName, additionalSubFieldCode,
+                    additionalSubFieldValue, anchorMetadata, conditionField, conditionValue, conditionType, text, wrapperLeft, wrapperRight,
+                    patternTemplate, patternTarget, mergeSeparator, regularExpression, replacements);
+            marcFields.add(mmf);
+        }
+
+        hcl = myconfig.configurationsAt("/doctype");
+        for (HierarchicalConfiguration hc : hcl) {
+            boolean exportDocstruct = hc.getBoolean("@export");
+            String docstructName = hc.getString("@rulesetName");
+            String leader6 = hc.getString("@leader6");
+            String leader7 = hc.getString("@leader7");
+            String leader19 = hc.getString("@leader19");
+            String dependencyType = hc.getString("@dependencyType");
+            String dependencyMetadata = hc.getString("@dependencyMetadata");
+            String dependencyValue = hc.getString("@dependencyValue");
+            docstructFields.add(new DocstructRule(exportDocstruct, docstructName, leader6, leader7, leader19, dependencyType, dependencyMetadata,
+                    dependencyValue));
+        }
+    }
+
+    /**
+     * Create the MARC records of a process
+     *
+     * @param ff loaded METS file
+     * @param prefs ruleset of the process
+     * @param exportDate date used for {date}
+     * @return records by identifier in export order, or null if the export failed
+     */
+    public Map<String, Document> createDocuments(Fileformat ff, Prefs prefs, Date exportDate) {
+        this.exportDate = exportDate;
+        Map<String, Document> documents = new LinkedHashMap<>();
+        List<DocStruct> docstructList = prepareDocStructList(ff);
+        if (docstructList == null) {
+            // error happened
+            return null; // NOSONAR
+        }
+
+        for (DocStruct docstruct : docstructList) {
+            // 1. get identifier
+            String identifier = getIdentifierOfDocStruct(docstruct, prefs);
+
+            // 2. get currentField
+            DocstructRule currentField = getCurrentMarcField(docstruct);
+
+            // 3. check if exportable
+            boolean exportable = isDocStructExportable(docstruct, identifier, currentField);
+
+            // 4. use results from 1, 2, 3 to control whether to go further, hence 1 - 4 are just preparation steps
+            if (!exportable) {
+                log.debug("docstruct is not exportable");
+                continue;
+            }
+
+            // 5. start to prepare the MARC document
+            Document marcDoc = new Document();
+            Element recordElement = new Element("record", marc);
+            marcDoc.setRootElement(recordElement);
+
+            Element leaderElement = new Element("leader", marc);
+            StringBuilder leader = createLeader(currentField);
+            leaderElement.setText(leader.toString());
+            recordElement.addContent(leaderElement);
+
+            Element marcField = null;
+            Metadata firstPersonOrCorporate = null;
+            // there should be ONLY ONE main entry, either Person or Corporate, but NOT both
+            boolean firstPersonOrCorporateWritten = false;
+            for (FieldRule configuredField : marcFields) {
+                String type = configuredField.getRulesetName();
+                // condition type
+                MetadataType conditionType = null;
+                if (StringUtils.isNotBlank(configuredField.getConditionField())) {
+                    conditionType = prefs.getMetadataTypeByName(configuredField.getConditionField());
+                }
+
+                /*
+                 * REMARKS ON MARC:
+                 *      1. Fields beginning with a 1 are referred to as main entry fields, and there should be ONLY ONE of them in each MARC record.
+                 *      1.1. Person - 100
+                 *      1.2. Corporate - 110
+                 * 
+                 *      2. Fields beginning with a 7 are used to provide additional access to the manifestation being cataloged.
+                 *      2.1. Person - 700
+                 *      2.2. Corporate - 710
+                 */
+                // write metadata according to actual types
+                if (type == null) {
+                    // static text, not metadata
+                    marcField = writeMetadataGeneral(docstruct, recordElement, marcField, configuredField, null, conditionType);
+                } else if ("group".equals(configuredField.getReuseMode())) {
+                    // metadata groups
+                    MetadataGroupType mgt = prefs.getMetadataGroupTypeByName(type);
+                    List<MetadataGroup> grps = docstruct.getAllMetadataGroupsByType(mgt);
+                    for (MetadataGroup grp : grps) {
+                        // generate new main field
+                        String groupName = mgt.getName() + "/";
+                        if (StringUtils.isBlank(configuredField.getMergeSeparator()) || !isMarcFieldReusable(marcField, configuredField)) {
+                            marcField = createMainElement(recordElement, configuredField);
+                        }
+                        for (FieldRule field : marcFields) {
+                            if (StringUtils.isNotBlank(field.getRulesetName()) && field.getRulesetName().startsWith(groupName)
+                                    && field.getMarcMainTag().equals(configuredField.getMarcMainTag())) {
+                                String metadataName = field.getRulesetName().replace(groupName, "");
+                                for (Metadata md : grp.getMetadataList()) {
+                                    if (md.getType().getName().equals(metadataName)) {
+                                        marcField = writeMetadataGeneral(docstruct, recordElement, marcField, field, md, conditionType);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                } else {
+                    MetadataType mdt = prefs.getMetadataTypeByName(type);
+                    if (mdt != null) {
+                        List<? extends Metadata> list = getMetadataListGeneral(docstruct, configuredField, mdt);
+
+                        if (list != null) {
+                            for (Metadata md : list) {
+                                // check if we should call writeMetadataGeneral, which depends on mdt
+                                int writeCode = getMetadataWriteCode(configuredField, mdt, firstPersonOrCorporate, md, firstPersonOrCorporateWritten);
+                                if (writeCode < 0) {
+                                    continue;
+                                }
+
+                                marcField = writeMetadataGeneral(docstruct, recordElement, marcField, configuredField, md, conditionType);
+
+                                if (writeCode == 100 || writeCode == 110 || writeCode == 111 || writeCode == 130) {
+                                    // first Person or first Corporate found
+                                    firstPersonOrCorporate = md;
+                                    firstPersonOrCorporateWritten = true;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            documents.put(identifier, marcDoc);
+        }
+        return documents;
+    }
+
+    /**
+     * Write a record with the output format of the first version
+     */
+    public void writeDocument(Document marcDoc, OutputStream out) throws IOException {
+        XMLOutputter outputter = new XMLOutputter();
+        outputter.setFormat(Format.getPrettyFormat());
+        outputter.output(marcDoc, out);
+    }
+
+    private List<DocStruct> prepareDocStructList(Fileformat ff) {
+        try {
+            DocStruct docstruct = ff.getDigitalDocument().getLogicalDocStruct();
+
+            if (!isIdentifierExistsInDocStruct(docstruct)) {
+                log.error("Missing identifier metadata");
+                return null; // NOSONAR
+            }
+
+            List<DocStruct> docstructList = new ArrayList<>();
+
+            docstructList.add(docstruct);
+            if (docstruct.getType().isAnchor()) {
+                docstructList.add(docstruct.getAllChildren().get(0));
+            }
+
+            return docstructList;
+
+        } catch (PreferencesException e1) {
+            log.error(e1);
+            return null; // NOSONAR
+        }
+    }
+
+    private boolean isIdentifierExistsInDocStruct(DocStruct docstruct) {
+        for (Metadata md : docstruct.getAllMetadata()) {
+            if (md.getType().isIdentifier()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String getIdentifierOfDocStruct(DocStruct docstruct, Prefs prefs) {
+        String identifier = null;
+
+        List<? extends Metadata> identifierList = docstruct.getAllMetadataByType(prefs.getMetadataTypeByName(identifierField));
+        if (identifierList != null) {
+            identifier = identifierList.get(0).getValue();
+        }
+
+        return identifier;
+    }
+
+    private DocstructRule getCurrentMarcField(DocStruct docstruct) {
+        String typeName = docstruct.getType().getName();
+        for (DocstructRule field : docstructFields) {
+            if (typeName.equals(field.getDocstructName())) {
+                return field;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isDocStructExportable(DocStruct docstruct, String identifier, DocstructRule currentField) {
+        return StringUtils.isNotBlank(identifier) && currentField != null && currentField.isExportDocstruct()
+                && isFieldDependencyFulfilled(docstruct, currentField);
+    }
+
+    private boolean isFieldDependencyFulfilled(DocStruct docstruct, DocstructRule currentField) {
+        if (StringUtils.isBlank(currentField.getDependencyType())) {
+            return true;
+        }
+
+        DocStruct dsToCheck = null;
+        if (docstruct.getType().isAnchor()) {
+            if ("anchor".equals(currentField.getDependencyType())) {
+                dsToCheck = docstruct;
+            } else {
+                dsToCheck = docstruct.getAllChildren().get(0);
+            }
+        } else if ("anchor".equals(currentField.getDependencyType())) {
+            dsToCheck = docstruct.getParent();
+        } else {
+            dsToCheck = docstruct;
+        }
+
+        String dependencyType = currentField.getDependencyMetadata();
+        String dependencyValue = currentField.getDependencyValue();
+        for (Metadata md : dsToCheck.getAllMetadata()) {
+            if (md.getType().getName().equals(dependencyType) && md.getValue().equals(dependencyValue)) {
+                // metadata found and its value matches
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int getMetadataWriteCode(FieldRule configuredField, MetadataType mdt, Metadata firstMetadata, Metadata currentMetadata,
+            boolean firstPersonOrCorporateWritten) {
+        String marcMainTag = configuredField.getMarcMainTag();
+        switch (marcMainTag) {
+            case "100":
+            case "110":
+            case "111":
+            case "130":
+            case "700":
+            case "710":
+            case "711":
+            case "730":
+                if (firstPersonOrCorporateWritten) {
+                    boolean sameFirst = firstMetadata != null;
+                    if (mdt.getIsPerson()) {
+                        sameFirst = sameFirst && firstMetadata instanceof Person && ((Person) firstMetadata).equals((Person) currentMetadata);
+                    } else if (mdt.isCorporate()) {
+                        sameFirst = sameFirst && firstMetadata instanceof Corporate && ((Corporate) firstMetadata).equals(currentMetadata);
+                    }
+                    // -1 means that this Metadata should not be written
+                    // 710 means that this is an additional Corporate and can be written
+                    // 700 means that this is an additional Person and can be written
+                    if (sameFirst) {
+                        return -1;
+                    } else if ("700".equals(marcMainTag)) {
+                        return 700;
+                    } else if ("710".equals(marcMainTag)) {
+                        return 710;
+                    } else if ("711".equals(marcMainTag)) {
+                        return 711;
+                    } else if ("730".equals(marcMainTag)) {
+                        return 730;
+                    } else {
+                        return -1;
+                    }
+                }
+
+                // 110 means that this is the first Corporate and can be written
+                // 100 means that this is the first Person and can be written
+
+                if ("100".equals(marcMainTag)) {
+                    return 100;
+                } else if ("110".equals(marcMainTag)) {
+                    return 110;
+                } else if ("111".equals(marcMainTag)) {
+                    return 111;
+                } else if ("130".equals(marcMainTag)) {
+                    return 130;
+                } else {
+                    return -1;
+                }
+            default:
+                return 0;
+
+        }
+    }
+
+    private Element writeMetadataGeneral(DocStruct docstruct, Element recordElement, Element marcField, FieldRule configuredField,
+            Metadata md, MetadataType conditionType) {
+        // configured condition, check if they match
+        if (conditionType != null) {
+            boolean match = checkConditions(docstruct, configuredField, conditionType);
+            if (!match) {
+                return marcField;
+            }
+        }
+
+        marcField = generateMarcField(recordElement, marcField, configuredField);
+
+        String marcFieldText = getWrappedMarcFieldText(configuredField, md);
+        if (configuredField.getReplacements().containsKey(marcFieldText)) {
+            marcFieldText = configuredField.getReplacements().get(marcFieldText);
+        }
+
+        Element elementToSetText;
+        String mergeSeparator = configuredField.getMergeSeparator();
+        // The controlfield-check was not there for Person and Corporation, but I think it should be. - Zehong
+        if (mergeSeparator != null && (elementToSetText = getElementToSetText(marcField, configuredField)) != null) {
+
+            String mergedText = getMergedText(elementToSetText.getText(), mergeSeparator, marcFieldText);
+            elementToSetText.setText(mergedText);
+
+        } else if (CONTROLFIELD_NAME.equals(configuredField.getFieldType())) {
+            marcField.setText(marcFieldText);
+
+        } else { // no need to merge or there is still no proper subfield available yet
+            Element subfield = new Element(SUBFIELD_NAME, marc);
+            subfield.setAttribute("code", configuredField.getMarcSubTag());
+            subfield.setText(marcFieldText);
+            marcField.addContent(subfield);
+
+            // The following X-check block was not there for Person and Corporation, but I think it should be. - Zehong
+            if ("X".equals(marcField.getAttributeValue("ind2"))) {
+                // sorting title
+                int ind2Value = getSortingTitleNumber(marcFieldText);
+                marcField.setAttribute("ind2", "" + ind2Value);
+            }
+        }
+
+        // additional subfield
+        if (StringUtils.isNotBlank(configuredField.getAdditionalSubFieldCode())) {
+            Element subfield = new Element(SUBFIELD_NAME, marc);
+            subfield.setAttribute("code", configuredField.getAdditionalSubFieldCode());
+            subfield.setText(configuredField.getAdditionalSubFieldValue());
+            marcField.addContent(subfield);
+        }
+
+        return marcField;
+    }
+
+    private Element getElementToSetText(Element marcField, FieldRule configuredField) {
+        if (CONTROLFIELD_NAME.equals(configuredField.getFieldType())) {
+            return marcField;
+        }
+        Element lastMatchingSubfield = null;
+        for (Element el : marcField.getChildren()) {
+            if (configuredField.getMarcSubTag().equals(el.getAttributeValue("code"))) {
+                lastMatchingSubfield = el;
+            }
+        }
+        return lastMatchingSubfield;
+    }
+
+    private String getMergedText(String oldText, String separator, String newText) {
+        if (StringUtils.isBlank(oldText)) {
+            return newText;
+        }
+
+        return oldText + (StringUtils.isBlank(separator) ? " " : separator.replace("\\u0020", " ")) + newText;
+    }
+
+    private List<? extends Metadata> getMetadataListGeneral(DocStruct docstruct, FieldRule configuredField, MetadataType mdt) {
+        // Person
+        if (mdt.getIsPerson()) {
+            return docstruct.getAllPersonsByType(mdt);
+        }
+
+        // Corporate
+        if (mdt.isCorporate()) {
+            return docstruct.getAllCorporatesByType(mdt);
+        }
+
+        // other Metadata, which is not anchor
+        if (!configuredField.isAnchorMetadata()) {
+            return docstruct.getAllMetadataByType(mdt);
+        }
+
+        // anchor metadata
+        if (docstruct.getParent() != null) {
+            return docstruct.getParent().getAllMetadataByType(mdt);
+        }
+
+        return Collections.emptyList();
+    }
+
+    private String getMarcFieldTextFromMetadata(Metadata md) {
+        if (md instanceof Corporate) {
+            return ((Corporate) md).getMainName();
+        }
+
+        if (md instanceof Person) {
+            Person p = (Person) md;
+            return p.getLastname() + ", " + p.getFirstname();
+        }
+
+        // normal metadata
+        return md.getValue();
+    }
+
+    private Element generateMarcField(Element recordElement, Element marcField, FieldRule configuredField) {
+        if ("none".equals(configuredField.getReuseMode())) {
+            marcField = createMainElement(recordElement, configuredField);
+
+        } else if (isMarcFieldReusable(marcField, configuredField)) {
+            // re-use field
+
+        } else {
+            marcField = createMainElement(recordElement, configuredField);
+        }
+
+        return marcField;
+    }
+
+    private boolean isMarcFieldReusable(Element marcField, FieldRule configuredField) {
+        return CONTROLFIELD_NAME.equals(configuredField.getFieldType()) ? isMarcControlFieldReusable(marcField, configuredField)
+                : isMarcDataFieldReusable(marcField, configuredField);
+    }
+
+    private boolean isMarcControlFieldReusable(Element marcField, FieldRule configuredField) {
+        return marcField != null && marcField.getAttributeValue("tag").equals(configuredField.getMarcMainTag());
+    }
+
+    private boolean isMarcDataFieldReusable(Element marcField, FieldRule configuredField) {
+        return marcField != null && marcField.getAttributeValue("tag").equals(configuredField.getMarcMainTag())
+                && configuredField.getInd1().equals(marcField.getAttributeValue("ind1"))
+                && ("X".equals(configuredField.getInd2()) || configuredField.getInd2().equals(marcField.getAttributeValue("ind2")));
+    }
+
+    private String getWrappedMarcFieldText(FieldRule configuredField, Metadata md) {
+        String marcFieldText = md == null ? configuredField.getStaticText() : getMarcFieldTextFromMetadata(md);
+        if ("{date}".equals(marcFieldText)) {
+            marcFieldText = formatter.format(exportDate);
+        }
+        // check pattern
+        if (StringUtils.isNoneBlank(configuredField.getPatternTemplate(), configuredField.getPatternTarget())) {
+            marcFieldText = getPatternTargetFromText(marcFieldText, configuredField.getPatternTemplate(), configuredField.getPatternTarget());
+        }
+
+        if (StringUtils.isNotBlank(configuredField.getRegularExpression())) {
+            List<String> params = MetsModsImportExport.splitRegularExpression(configuredField.getRegularExpression());
+            marcFieldText = marcFieldText.replaceAll(params.get(0), params.get(1));
+        }
+
+        String left = configuredField.getWrapperLeft();
+        String right = configuredField.getWrapperRight();
+        if (left == null) {
+            left = "";
+        } else if (StringUtils.isEmpty(left)) {
+            left = " ";
+        }
+        if (right == null) {
+            right = "";
+        } else if (StringUtils.isEmpty(right)) {
+            right = " ";
+        }
+
+        return left.replace("\\u0020", " ") + marcFieldText + right.replace("\\u0020", " ");
+    }
+
+    private String getPatternTargetFromText(String text, String template, String target) {
+        String textCopy = text;
+
+        Matcher matcher = SEPARATOR_PATTERN.matcher(template);
+        while (matcher.find()) {
+            String separator = matcher.group();
+            int splitIndexTemplate = template.indexOf(separator);
+            int splitIndexText = textCopy.indexOf(separator);
+            if (splitIndexText < 0) {
+                // pattern template is not correctly configured
+                log.error("Unknown separator " + separator + " in the text. @patternTemplate may be incorrect.");
+                return text;
+            }
+
+            String key = template.substring(0, splitIndexTemplate);
+            if (target.equals(key)) {
+                // match found
+                return textCopy.substring(0, splitIndexText);
+            }
+
+            // not a match yet, update template and textCopy
+            template = template.substring(splitIndexTemplate + 1);
+            textCopy = textCopy.substring(splitIndexText + 1);
+        }
+
+        // return the original text if no match found
+        return target.equals(template) ? textCopy : text;
+    }
+
+    private boolean checkConditions(DocStruct docstruct, FieldRule configuredField, MetadataType conditionType) {
+        // filter out a list of Metadata whose elements are all of conditionType
+        List<? extends Metadata> conditionList = null;
+        if (configuredField.isAnchorMetadata()) {
+            if (docstruct.getParent() != null) {
+                conditionList = docstruct.getParent().getAllMetadataByType(conditionType);
+            } else {
+                return false;
+            }
+        } else {
+            conditionList = docstruct.getAllMetadataByType(conditionType);
+        }
+
+        if (conditionList == null || conditionList.isEmpty()) {
+            // nothing found
+            return false;
+        }
+
+        // look for a match
+        boolean match = false;
+        for (Metadata md : conditionList) {
+            match = match || isMetadataAMatch(md, configuredField);
+        }
+        return match;
+    }
+
+    private boolean isMetadataAMatch(Metadata md, FieldRule configuredField) {
+        switch (configuredField.getConditionType()) {
+            case "is":
+                return md.getValue().equals(configuredField.getConditionValue());
+            case "not":
+                return !md.getValue().equals(configuredField.getConditionValue());
+            case "matches":
+                return md.getValue().matches(configuredField.getConditionValue());
+            case "any":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private int getSortingTitleNumber(String value) {
+        if (value.startsWith("A ")) {
+            return 2;
+        } else if (value.startsWith("An ")) {
+            return 3;
+        } else if (value.startsWith("Das ")) {
+            return 4;
+        } else if (value.startsWith("De ")) {
+            return 3;
+        } else if (value.startsWith("Dem ")) {
+            return 4;
+        } else if (value.startsWith("Den ")) {
+            return 4;
+        } else if (value.startsWith("Der ")) {
+            return 4;
+        } else if (value.startsWith("Des ")) {
+            return 4;
+        } else if (value.startsWith("Die ")) {
+            return 4;
+        } else if (value.startsWith("Een ")) {
+            return 4;
+        } else if (value.startsWith("Ein ")) {
+            return 4;
+        } else if (value.startsWith("Eine ")) {
+            return 5;
+        } else if (value.startsWith("Einem ")) {
+            return 6;
+        } else if (value.startsWith("Einen ")) {
+            return 6;
+        } else if (value.startsWith("Einer ")) {
+            return 6;
+        } else if (value.startsWith("Eines ")) {
+            return 6;
+        } else if (value.startsWith("El ")) {
+            return 3;
+        } else if (value.startsWith("En ")) {
+            return 3;
+        } else if (value.startsWith("Et ")) {
+            return 3;
+        } else if (value.startsWith("Gli ")) {
+            return 4;
+        } else if (value.startsWith("Het ")) {
+            return 4;
+        } else if (value.startsWith("I ")) {
+            return 2;
+        } else if (value.startsWith("Il ")) {
+            return 3;
+        } else if (value.startsWith("L' ")) {
+            return 3;
+        } else if (value.startsWith("La ")) {
+            return 3;
+        } else if (value.startsWith("Las ")) {
+            return 4;
+        } else if (value.startsWith("Le ")) {
+            return 3;
+        } else if (value.startsWith("Les ")) {
+            return 4;
+        } else if (value.startsWith("Lo ")) {
+            return 3;
+        } else if (value.startsWith("Los ")) {
+            return 4;
+        } else if (value.startsWith("The ")) {
+            return 4;
+        } else if (value.startsWith("Un ")) {
+            return 3;
+        } else if (value.startsWith("Un' ")) {
+            return 4;
+        } else if (value.startsWith("Una ")) {
+            return 4;
+        } else if (value.startsWith("Unas ")) {
+            return 5;
+        } else if (value.startsWith("Une ")) {
+            return 4;
+        } else if (value.startsWith("Uno ")) {
+            return 4;
+        } else if (value.startsWith("Unos ")) {
+            return 5;
+        }
+
+        return 0;
+    }
+
+    private StringBuilder createLeader(DocstructRule docstruct) {
+        StringBuilder leader = new StringBuilder();
+        leader.append("xxxxx"); // 00-04 - Record length, empty
+        leader.append("n"); // 05 - Record status, n=new
+        if (StringUtils.isNotBlank(docstruct.getLeader6())) {
+            leader.append(docstruct.getLeader6());
+        } else {
+            leader.append("a"); // 06 - Type of record, a - Language material
+        }
+        // 07 - Bibliographic level
+        if (StringUtils.isNotBlank(docstruct.getLeader7())) {
+            leader.append(docstruct.getLeader7());
+        } else {
+            leader.append("m"); // Monograph/Item
+        }
+        leader.append(" "); // 08 - Type of control - empty
+        leader.append("a"); //09 - Character coding scheme
+        leader.append("2"); //10 - Indicator count
+
+        leader.append("2"); // 11 - Subfield code count
+        leader.append("yyyyy"); // 12-16 - Base address of data
+        leader.append("u");// 17 - Encoding level u - Unknown
+        leader.append("u"); // 18 - Descriptive cataloging form u - Unknown
+        // 19 - Multipart resource record level
+        if (StringUtils.isNotBlank(docstruct.getLeader19())) {
+            leader.append(docstruct.getLeader19());
+        } else {
+            leader.append(" ");
+        }
+        // 20 - Length of the length-of-field portion
+        // 21 - Length of the starting-character-position portion
+        // 22 - Length of the implementation-defined portion
+        // 23 - Undefined
+        leader.append("4500");
+        return leader;
+    }
+
+    private Element createMainElement(Element rootElement, FieldRule configuredField) {
+        Element element = new Element(configuredField.getFieldType(), marc);
+        element.setAttribute("tag", configuredField.getMarcMainTag());
+        if ("datafield".equals(configuredField.getFieldType())) {
+            element.setAttribute("ind1", configuredField.getInd1());
+            element.setAttribute("ind2", configuredField.getInd2());
+        }
+        rootElement.addContent(element);
+        return element;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class FieldRule {
+
+        private String fieldType; // controlfield, datafield (default)
+
+        @NonNull
+        private String marcMainTag;
+
+        private String ind1;
+
+        private String ind2;
+
+        private String marcSubTag;
+
+        private String reuseMode;
+
+        private String rulesetName;
+
+        private String additionalSubFieldCode;
+        private String additionalSubFieldValue;
+
+        private boolean anchorMetadata = false;
+
+        private String conditionField;
+        private String conditionValue;
+        private String conditionType; // is, not, any, matches
+
+        private String staticText;
+
+        private String wrapperLeft;
+        private String wrapperRight;
+
+        private String patternTemplate;
+        private String patternTarget;
+
+        private String mergeSeparator;
+
+        private String regularExpression;
+
+        private Map<String, String> replacements;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class DocstructRule {
+
+        private boolean exportDocstruct;
+
+        private String docstructName;
+
+        private String leader6;
+        private String leader7;
+        private String leader19;
+
+        private String dependencyType; // anchor | child
+        private String dependencyMetadata; // name of the metadata to check
+        private String dependencyValue; // value of the metadata to check
+    }
+}
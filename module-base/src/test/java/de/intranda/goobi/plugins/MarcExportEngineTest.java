@@ -0,0 +1,203 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.input.SAXBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MarcExportEngineTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    private static final String FIELD_008 = "      s2020    au            000 0 ger  ";
+
+    private static String resourcesFolder;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+
+        String log4jFile = resourcesFolder + "log4j2.xml"; // for junit tests in eclipse
+
+        System.setProperty("log4j.configurationFile", log4jFile);
+    }
+
+    @Test
+    public void testBlankPaddedControlFieldPretty() throws Exception {
+        assertEquals(40, FIELD_008.length());
+        assertEquals(FIELD_008, writeAndReadControlField("marcxml", true));
+    }
+
+    @Test
+    public void testBlankPaddedControlFieldCompact() throws Exception {
+        assertEquals(FIELD_008, writeAndReadControlField("marcxml-compact", true));
+    }
+
+    @Test
+    public void testControlFieldOfMarcFieldRulesIsTrimmed() throws Exception {
+        // without a controlField definition the 008 comes from marcField rules and is written like in the first version of the export
+        assertEquals(FIELD_008.trim(), writeAndReadControlField("marcxml", false));
+        assertEquals(FIELD_008.trim(), writeAndReadControlField("marcxml-compact", false));
+    }
+
+    @Test
+    public void testProcessLayout() throws Exception {
+        MarcExportEngine engine = createEngine("marcxml", null, 2, 2);
+        assertEquals("42/PPN123.xml", engine.getRelativePath("42", "PPN123"));
+    }
+
+    @Test
+    public void testShardedLayout() throws Exception {
+        // md5 of PPN123 is 84b676afb9c58474f609da321ed8e237
+        assertEquals("84/b6/PPN123.xml", createEngine("marcxml", "sharded", 2, 2).getRelativePath("42", "PPN123"));
+        assertEquals("84b/676/afb/PPN123.xml", createEngine("marcxml", "sharded", 3, 3).getRelativePath("42", "PPN123"));
+        assertEquals("PPN123.xml", createEngine("marcxml", "sharded", 0, 2).getRelativePath("42", "PPN123"));
+    }
+
+    @Test
+    public void testShardedLayoutIsLimitedByTheHashLength() throws Exception {
+        // 32 hex characters allow only 16 folders of width 2 and no folder of width 40
+        String path = createEngine("marcxml", "sharded", 20, 2).getRelativePath("42", "PPN123");
+        assertEquals(17, path.split("/").length);
+        assertEquals("PPN123.xml", createEngine("marcxml", "sharded", 2, 40).getRelativePath("42", "PPN123"));
+    }
+
+    @Test
+    public void testDuplicateFieldsAreRemoved() throws Exception {
+        MarcExportEngine engine = createDeduplicatingEngine(false);
+        Element recordElement = new Element("record", MARC);
+        recordElement.addContent(createDataField("650", " ", "7", "a", "Economics", "2", "gnd"));
+        recordElement.addContent(createDataField("700", "1", " ", "a", "Müller, Anna", "4", "aut"));
+        recordElement.addContent(createDataField("650", " ", "7", "a", "Economics", "2", "gnd"));
+        recordElement.addContent(createDataField("700", "1", " ", "a", "Müller, Anna", "4", "aut"));
+        // not in the tag list
+        recordElement.addContent(createDataField("500", " ", " ", "a", "Note"));
+        recordElement.addContent(createDataField("500", " ", " ", "a", "Note"));
+
+        engine.removeDuplicateFields(recordElement);
+        assertEquals("650 700 500 500", getTags(recordElement));
+    }
+
+    @Test
+    public void testFieldsWithOtherIndicatorsOrSubfieldOrderAreKept() throws Exception {
+        MarcExportEngine engine = createDeduplicatingEngine(false);
+        Element recordElement = new Element("record", MARC);
+        recordElement.addContent(createDataField("650", " ", "7", "a", "Economics", "2", "gnd"));
+        recordElement.addContent(createDataField("650", " ", "4", "a", "Economics", "2", "gnd"));
+        recordElement.addContent(createDataField("650", " ", "7", "2", "gnd", "a", "Economics"));
+        recordElement.addContent(createDataField("700", "1", " ", "a", "Müller, Anna", "4", "aut"));
+        recordElement.addContent(createDataField("700", "1", " ", "a", "Müller, Anna", "4", "edt"));
+
+        engine.removeDuplicateFields(recordElement);
+        assertEquals("650 650 650 700 700", getTags(recordElement));
+    }
+
+    @Test
+    public void testDeduplicateFalseOverridesTagList() throws Exception {
+        MarcExportEngine engine = createDeduplicatingEngine(true);
+        Element recordElement = new Element("record", MARC);
+        recordElement.addContent(createDataField("650", " ", "7", "a", "Economics", "2", "gnd"));
+        recordElement.addContent(createDataField("650", " ", "7", "a", "Economics", "2", "gnd"));
+        recordElement.addContent(createDataField("700", "1", " ", "a", "Müller, Anna", "4", "aut"));
+        recordElement.addContent(createDataField("700", "1", " ", "a", "Müller, Anna", "4", "aut"));
+
+        engine.removeDuplicateFields(recordElement);
+        assertEquals("650 700 700", getTags(recordElement));
+    }
+
+    private MarcExportEngine createDeduplicatingEngine(boolean keep700) throws Exception {
+        XMLConfiguration config = new XMLConfiguration(resourcesFolder + "marcexport_config.xml");
+        config.setProperty("deduplication[@tags]", "650 700");
+        if (keep700) {
+            int index = config.getList("marcField[@mainTag]").indexOf("700");
+            config.setProperty("marcField(" + index + ")[@deduplicate]", "false");
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        return new MarcExportEngine(config);
+    }
+
+    private static Element createDataField(String tag, String ind1, String ind2, String... codesAndValues) {
+        Element field = new Element("datafield", MARC);
+        field.setAttribute("tag", tag);
+        field.setAttribute("ind1", ind1);
+        field.setAttribute("ind2", ind2);
+        for (int i = 0; i < codesAndValues.length; i += 2) {
+            Element subfield = new Element("subfield", MARC);
+            subfield.setAttribute("code", codesAndValues[i]);
+            subfield.setText(codesAndValues[i + 1]);
+            field.addContent(subfield);
+        }
+        return field;
+    }
+
+    private static String getTags(Element recordElement) {
+        StringBuilder tags = new StringBuilder();
+        for (Element field : recordElement.getChildren()) {
+            if (tags.length() > 0) {
+                tags.append(' ');
+            }
+            tags.append(field.getAttributeValue("tag"));
+        }
+        return tags.toString();
+    }
+
+    private MarcExportEngine createEngine(String outputFormat, String layoutType, int levels, int width) throws Exception {
+        XMLConfiguration config = new XMLConfiguration(resourcesFolder + "marcexport_config.xml");
+        config.setProperty("outputFormat", outputFormat);
+        if (layoutType != null) {
+            config.setProperty("exportLayout[@type]", layoutType);
+            config.setProperty("exportLayout[@levels]", levels);
+            config.setProperty("exportLayout[@width]", width);
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        return new MarcExportEngine(config);
+    }
+
+    private String writeAndReadControlField(String outputFormat, boolean fixedLength) throws Exception {
+        XMLConfiguration config = new XMLConfiguration(resourcesFolder + "marcexport_config.xml");
+        config.setProperty("outputFormat", outputFormat);
+        if (fixedLength) {
+            config.addProperty("controlField[@tag]", "008");
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        MarcExportEngine engine = new MarcExportEngine(config);
+
+        Element recordElement = new Element("record", MARC);
+        Element controlField = new Element("controlfield", MARC);
+        controlField.setAttribute("tag", "008");
+        controlField.setText(FIELD_008);
+        recordElement.addContent(controlField);
+        Element dataField = new Element("datafield", MARC);
+        dataField.setAttribute("tag", "245");
+        dataField.setAttribute("ind1", "1");
+        dataField.setAttribute("ind2", "0");
+        Element subfield = new Element("subfield", MARC);
+        subfield.setAttribute("code", "a");
+        subfield.setText("Title");
+        dataField.addContent(subfield);
+        recordElement.addContent(dataField);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        engine.writeRecord(new MarcRecord("1", "Monograph", new Document(recordElement)), out);
+
+        Document document = new SAXBuilder().build(new ByteArrayInputStream(out.toByteArray()));
+        Element root = document.getRootElement();
+        assertEquals("Title", root.getChild("datafield", MARC).getChild("subfield", MARC).getText());
+        return root.getChild("controlfield", MARC).getText();
+    }
+}
@@ -0,0 +1,73 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MarcExportIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLoadMissingFile() throws Exception {
+        MarcExportIndex index = new MarcExportIndex(folder.getRoot().toPath().resolve("missing.tsv"));
+        assertTrue(index.load().isEmpty());
+    }
+
+    @Test
+    public void testAppendAndLoad() throws Exception {
+        Path indexFile = folder.getRoot().toPath().resolve("sub/marcexport-index.tsv");
+        MarcExportIndex index = new MarcExportIndex(indexFile);
+        index.append(Arrays.asList(new MarcExportIndexEntry("PPN1", "1", "1/PPN1.xml", "2024-03-07T10:00:00Z"),
+                new MarcExportIndexEntry("PPN2", "1", "1/PPN2.xml", "2024-03-07T10:00:00Z")));
+        index.append(Collections.emptyList());
+
+        Map<String, MarcExportIndexEntry> entries = index.load();
+        assertEquals(2, entries.size());
+        assertEquals(new MarcExportIndexEntry("PPN2", "1", "1/PPN2.xml", "2024-03-07T10:00:00Z"), entries.get("PPN2"));
+    }
+
+    @Test
+    public void testLaterEntriesReplaceEarlierEntries() throws Exception {
+        MarcExportIndex index = new MarcExportIndex(folder.getRoot().toPath().resolve("index.tsv"));
+        index.append(Collections.singletonList(new MarcExportIndexEntry("PPN1", "1", "84/b6/PPN1.xml", "2024-03-07T10:00:00Z")));
+        index.append(Collections.singletonList(new MarcExportIndexEntry("PPN1", "2", "84/b6/PPN1.xml", "2024-03-08T10:00:00Z")));
+
+        MarcExportIndexEntry entry = index.load().get("PPN1");
+        assertEquals("2", entry.getProcessId());
+        assertEquals("2024-03-08T10:00:00Z", entry.getExportTimestamp());
+    }
+
+    @Test
+    public void testSeparatorsInValuesAreReplaced() throws Exception {
+        Path indexFile = folder.getRoot().toPath().resolve("index.tsv");
+        MarcExportIndex index = new MarcExportIndex(indexFile);
+        index.append(Collections.singletonList(new MarcExportIndexEntry("PPN\t1", "1", "1/PPN 1\n.xml", null)));
+
+        assertEquals(1, Files.readAllLines(indexFile, StandardCharsets.UTF_8).size());
+        MarcExportIndexEntry entry = index.load().get("PPN 1");
+        assertEquals("1/PPN 1 .xml", entry.getRelativePath());
+        assertEquals("", entry.getExportTimestamp());
+    }
+
+    @Test
+    public void testMalformedLinesAreIgnored() throws Exception {
+        Path indexFile = folder.getRoot().toPath().resolve("index.tsv");
+        Files.write(indexFile, "broken line\nPPN1\t1\t1/PPN1.xml\t2024-03-07T10:00:00Z\n".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, MarcExportIndexEntry> entries = new MarcExportIndex(indexFile).load();
+        assertEquals(1, entries.size());
+        assertEquals("1/PPN1.xml", entries.get("PPN1").getRelativePath());
+    }
+}
@@ -0,0 +1,187 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class MarcExportSchedulerTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Test
+    public void testUnlimited() throws Exception {
+        MarcExportScheduler scheduler = new MarcExportScheduler("test");
+        assertFalse(scheduler.isLimited());
+        try (MarcExportScheduler.Permit first = scheduler.acquire("A", false);
+                MarcExportScheduler.Permit second = scheduler.acquire("A", false);
+                MarcExportScheduler.Permit third = scheduler.acquire("B", true)) {
+            assertEquals(0, scheduler.getQueueDepth());
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        MarcExportScheduler scheduler = new MarcExportScheduler("test");
+        scheduler.configure(2, true);
+        assertTrue(scheduler.isLimited());
+
+        MarcExportScheduler.Permit first = scheduler.acquire("A", false);
+        MarcExportScheduler.Permit second = scheduler.acquire("A", false);
+
+        CountDownLatch granted = new CountDownLatch(1);
+        Thread waiting = startWaiting(scheduler, "B", false, Collections.synchronizedList(new ArrayList<>()), granted);
+        awaitQueueDepth(scheduler, 1);
+        assertFalse(granted.await(100, TimeUnit.MILLISECONDS));
+
+        first.close();
+        assertTrue(granted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        waiting.join(TIMEOUT_MILLIS);
+
+        // closing a permit twice must not release a second permit
+        first.close();
+        second.close();
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void testRaisingTheLimitGrantsWaitingPermits() throws Exception {
+        MarcExportScheduler scheduler = new MarcExportScheduler("test");
+        scheduler.configure(1, true);
+        try (MarcExportScheduler.Permit permit = scheduler.acquire("A", false)) {
+            CountDownLatch granted = new CountDownLatch(1);
+            Thread waiting = startWaiting(scheduler, "B", false, Collections.synchronizedList(new ArrayList<>()), granted);
+            awaitQueueDepth(scheduler, 1);
+
+            scheduler.configure(2, true);
+            assertTrue(granted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+            waiting.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    @Test
+    public void testRoundRobinPerProject() throws Exception {
+        MarcExportScheduler scheduler = new MarcExportScheduler("test");
+        scheduler.configure(1, true);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch granted = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<>();
+
+        try (MarcExportScheduler.Permit permit = scheduler.acquire("other", false)) {
+            threads.add(startWaiting(scheduler, "A", false, order, granted));
+            awaitQueueDepth(scheduler, 1);
+            threads.add(startWaiting(scheduler, "A", false, order, granted));
+            awaitQueueDepth(scheduler, 2);
+            threads.add(startWaiting(scheduler, "A", false, order, granted));
+            awaitQueueDepth(scheduler, 3);
+            threads.add(startWaiting(scheduler, "B", false, order, granted));
+            awaitQueueDepth(scheduler, 4);
+        }
+
+        assertTrue(granted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MILLIS);
+        }
+        assertEquals(Arrays.asList("A", "B", "A", "A"), order);
+    }
+
+    @Test
+    public void testInteractivePriority() throws Exception {
+        assertEquals(Arrays.asList("interactive", "bulk"), getOrderOfBulkAndInteractive(true));
+    }
+
+    @Test
+    public void testInteractiveWithoutPriority() throws Exception {
+        assertEquals(Arrays.asList("bulk", "interactive"), getOrderOfBulkAndInteractive(false));
+    }
+
+    @Test
+    public void testInterruptWhileWaiting() throws Exception {
+        MarcExportScheduler scheduler = new MarcExportScheduler("test");
+        scheduler.configure(1, true);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+
+        MarcExportScheduler.Permit permit = scheduler.acquire("A", false);
+        Thread waiting = new Thread(() -> {
+            try (MarcExportScheduler.Permit other = scheduler.acquire("B", false)) {
+                // not expected
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        waiting.start();
+        awaitQueueDepth(scheduler, 1);
+        waiting.interrupt();
+        waiting.join(TIMEOUT_MILLIS);
+
+        assertTrue(interrupted.get());
+        assertEquals(0, scheduler.getQueueDepth());
+
+        // the interrupted request must neither hold nor block a permit
+        permit.close();
+        CountDownLatch granted = new CountDownLatch(1);
+        Thread next = startWaiting(scheduler, "C", false, Collections.synchronizedList(new ArrayList<>()), granted);
+        assertTrue(granted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        next.join(TIMEOUT_MILLIS);
+        try (MarcExportScheduler.Permit last = scheduler.acquire("D", false)) {
+            assertEquals(0, scheduler.getQueueDepth());
+        }
+    }
+
+    private static List<String> getOrderOfBulkAndInteractive(boolean prioritizeInteractive) throws Exception {
+        MarcExportScheduler scheduler = new MarcExportScheduler("test");
+        scheduler.configure(1, prioritizeInteractive);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch granted = new CountDownLatch(2);
+        List<Thread> threads = new ArrayList<>();
+
+        try (MarcExportScheduler.Permit permit = scheduler.acquire("A", false)) {
+            threads.add(startWaiting(scheduler, "bulk", false, order, granted));
+            awaitQueueDepth(scheduler, 1);
+            threads.add(startWaiting(scheduler, "interactive", true, order, granted));
+            awaitQueueDepth(scheduler, 2);
+        }
+
+        assertTrue(granted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MILLIS);
+        }
+        return order;
+    }
+
+    /**
+     * Start a thread that waits for a permit, records the project when the permit is granted and releases it again
+     */
+    private static Thread startWaiting(MarcExportScheduler scheduler, String project, boolean interactive, List<String> order,
+            CountDownLatch granted) {
+        Thread thread = new Thread(() -> {
+            try (MarcExportScheduler.Permit permit = scheduler.acquire(project, interactive)) {
+                order.add(project);
+                granted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueueDepth(MarcExportScheduler scheduler, int depth) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (scheduler.getQueueDepth() != depth) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("queue depth " + depth + " was not reached, was " + scheduler.getQueueDepth());
+            }
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.Test;
+
+public class MarcRecordValidatorTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    @Test
+    public void testValidRecord() {
+        Element recordElement = createRecord();
+        addControlField(recordElement, "001", "1234");
+        addControlField(recordElement, "008", createFixedField(40));
+        addDataField(recordElement, "100", "1", " ", "a", "Author");
+        addDataField(recordElement, "245", "1", "4", "a", "The title");
+
+        MarcRecordValidator validator = new MarcRecordValidator(MarcRecordValidator.MODE_WARN);
+        assertTrue(validator.validate(recordElement).isEmpty());
+        assertTrue(validator.getViolationCounts().isEmpty());
+    }
+
+    @Test
+    public void testMissing245() {
+        Element recordElement = createRecord();
+        addDataField(recordElement, "246", "1", " ", "a", "Other title");
+
+        assertSingleViolation(recordElement, "missing-245");
+    }
+
+    @Test
+    public void testRepeated245() {
+        Element recordElement = createRecord();
+        addDataField(recordElement, "245", "1", "0", "a", "First title");
+        addDataField(recordElement, "245", "1", "0", "a", "Second title");
+
+        assertSingleViolation(recordElement, "repeated-245");
+    }
+
+    @Test
+    public void testMultipleMainEntries() {
+        Element recordElement = createRecord();
+        addDataField(recordElement, "100", "1", " ", "a", "Author");
+        addDataField(recordElement, "110", "2", " ", "a", "Corporate");
+        addDataField(recordElement, "245", "1", "0", "a", "Title");
+
+        assertSingleViolation(recordElement, "multiple-1xx");
+    }
+
+    @Test
+    public void test008Length() {
+        Element recordElement = createRecord();
+        addControlField(recordElement, "008", createFixedField(39));
+        addDataField(recordElement, "245", "1", "0", "a", "Title");
+
+        assertSingleViolation(recordElement, "008-length");
+    }
+
+    @Test
+    public void testUnresolvedIndicator() {
+        Element recordElement = createRecord();
+        addDataField(recordElement, "245", "1", "X", "a", "Title");
+
+        assertSingleViolation(recordElement, "unresolved-indicator");
+    }
+
+    @Test
+    public void testInvalidIndicator() {
+        Element recordElement = createRecord();
+        addDataField(recordElement, "245", "1", "A", "a", "Title");
+
+        assertSingleViolation(recordElement, "invalid-indicator");
+    }
+
+    @Test
+    public void testRepeatedControlField() {
+        Element recordElement = createRecord();
+        addControlField(recordElement, "001", "1234");
+        addControlField(recordElement, "001", "5678");
+        addDataField(recordElement, "245", "1", "0", "a", "Title");
+
+        assertSingleViolation(recordElement, "repeated-controlfield");
+    }
+
+    @Test
+    public void testRepeatable006And007() {
+        Element recordElement = createRecord();
+        addControlField(recordElement, "006", "m     o  d        ");
+        addControlField(recordElement, "006", "a                 ");
+        addControlField(recordElement, "007", "cr");
+        addControlField(recordElement, "007", "ta");
+        addDataField(recordElement, "245", "1", "0", "a", "Title");
+
+        MarcRecordValidator validator = new MarcRecordValidator(MarcRecordValidator.MODE_WARN);
+        assertTrue(validator.validate(recordElement).isEmpty());
+    }
+
+    @Test
+    public void testInvalidTagsAndSubfields() {
+        Element recordElement = createRecord();
+        addControlField(recordElement, "245", "wrong");
+        addDataField(recordElement, "245", "1", "0", "A", "Title");
+        Element empty = new Element("datafield", MARC);
+        empty.setAttribute("tag", "500");
+        empty.setAttribute("ind1", " ");
+        empty.setAttribute("ind2", " ");
+        recordElement.addContent(empty);
+
+        MarcRecordValidator validator = new MarcRecordValidator(MarcRecordValidator.MODE_WARN);
+        validator.validate(recordElement);
+        assertEquals(Integer.valueOf(1), validator.getViolationCounts().get("controlfield-tag"));
+        assertEquals(Integer.valueOf(1), validator.getViolationCounts().get("subfield-code"));
+        assertEquals(Integer.valueOf(1), validator.getViolationCounts().get("empty-datafield"));
+    }
+
+    @Test
+    public void testLeaderLength() {
+        Element recordElement = createRecord();
+        recordElement.getChild("leader", MARC).setText("00000nam");
+        addDataField(recordElement, "245", "1", "0", "a", "Title");
+
+        assertSingleViolation(recordElement, "leader-length");
+    }
+
+    @Test
+    public void testViolationCountsAreSummed() {
+        MarcRecordValidator validator = new MarcRecordValidator(MarcRecordValidator.MODE_WARN);
+        validator.validate(createRecord());
+        validator.validate(createRecord());
+        assertEquals(Integer.valueOf(2), validator.getViolationCounts().get("missing-245"));
+    }
+
+    @Test
+    public void testModes() {
+        assertFalse(new MarcRecordValidator(null).isEnabled());
+        assertFalse(new MarcRecordValidator("none").isEnabled());
+        assertEquals(MarcRecordValidator.MODE_FAIL, new MarcRecordValidator("FAIL").getMode());
+    }
+
+    @Test
+    public void testActions() {
+        MarcRecord valid = new MarcRecord("valid", "Monograph", new Document());
+        MarcRecord invalid = new MarcRecord("invalid", "Monograph", new Document());
+        invalid.setViolations(Collections.singletonList("missing-245: record has no 245 field"));
+
+        for (String mode : new String[] { MarcRecordValidator.MODE_NONE, MarcRecordValidator.MODE_WARN, MarcRecordValidator.MODE_SKIP,
+                MarcRecordValidator.MODE_FAIL }) {
+            assertEquals(MarcRecordValidator.Action.WRITE, new MarcRecordValidator(mode).getAction(valid));
+        }
+        assertEquals(MarcRecordValidator.Action.WRITE, new MarcRecordValidator(MarcRecordValidator.MODE_WARN).getAction(invalid));
+        assertEquals(MarcRecordValidator.Action.SKIP, new MarcRecordValidator(MarcRecordValidator.MODE_SKIP).getAction(invalid));
+        assertEquals(MarcRecordValidator.Action.FAIL, new MarcRecordValidator(MarcRecordValidator.MODE_FAIL).getAction(invalid));
+        assertEquals("MARC record invalid is invalid: missing-245: record has no 245 field", MarcRecordValidator.getViolationMessage(invalid));
+    }
+
+    private static void assertSingleViolation(Element recordElement, String rule) {
+        MarcRecordValidator validator = new MarcRecordValidator(MarcRecordValidator.MODE_WARN);
+        List<String> violations = validator.validate(recordElement);
+        assertEquals(violations.toString(), 1, violations.size());
+        assertTrue(violations.get(0), violations.get(0).startsWith(rule + ": "));
+        assertEquals(Integer.valueOf(1), validator.getViolationCounts().get(rule));
+    }
+
+    private static Element createRecord() {
+        Element recordElement = new Element("record", MARC);
+        Element leader = new Element("leader", MARC);
+        leader.setText("00000nam a2200000 c 4500");
+        recordElement.addContent(leader);
+        return recordElement;
+    }
+
+    private static void addControlField(Element recordElement, String tag, String value) {
+        Element field = new Element("controlfield", MARC);
+        field.setAttribute("tag", tag);
+        field.setText(value);
+        recordElement.addContent(field);
+    }
+
+    private static void addDataField(Element recordElement, String tag, String ind1, String ind2, String code, String value) {
+        Element field = new Element("datafield", MARC);
+        field.setAttribute("tag", tag);
+        field.setAttribute("ind1", ind1);
+        field.setAttribute("ind2", ind2);
+        Element subfield = new Element("subfield", MARC);
+        subfield.setAttribute("code", code);
+        subfield.setText(value);
+        field.addContent(subfield);
+        recordElement.addContent(field);
+    }
+
+    private static String createFixedField(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append('|');
+        }
+        return sb.toString();
+    }
+}
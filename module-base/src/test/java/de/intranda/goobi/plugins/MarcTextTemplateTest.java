@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MarcTextTemplateTest {
+
+    private static final ZonedDateTime EXPORT_TIME = ZonedDateTime.of(2024, 3, 7, 14, 30, 0, 0, ZoneOffset.UTC);
+
+    private static final MarcRecordContext PROCESS = new MarcRecordContext("42", "process_title", EXPORT_TIME);
+
+    @Test
+    public void testTextWithoutTokens() {
+        MarcTextTemplate template = MarcTextTemplate.parse("GoobiEHssTest", "yyyy-MM-dd");
+        assertFalse(template.hasTokens());
+        assertEquals("GoobiEHssTest", template.evaluate(PROCESS.forRecord("1")));
+
+        MarcTextTemplate empty = MarcTextTemplate.parse(null, "yyyy-MM-dd");
+        assertFalse(empty.hasTokens());
+        assertNull(empty.evaluate(PROCESS));
+    }
+
+    @Test
+    public void testTokens() {
+        MarcTextTemplate template = MarcTextTemplate.parse("({processId}) {processTitle}: {identifier}", "yyyy-MM-dd");
+        assertTrue(template.hasTokens());
+        assertEquals("(42) process_title: PPN123", template.evaluate(PROCESS.forRecord("PPN123")));
+        // without context the configured text is returned
+        assertEquals("({processId}) {processTitle}: {identifier}", template.evaluate(null));
+    }
+
+    @Test
+    public void testDateWithDefaultPatternAndExplicitPattern() {
+        assertEquals("240307", MarcTextTemplate.parse("{date}", "yyMMdd").evaluate(PROCESS.forRecord("1")));
+        assertEquals("2024-03-07", MarcTextTemplate.parse("{date}", "yyyy-MM-dd").evaluate(PROCESS.forRecord("1")));
+        assertEquals("07.03.2024", MarcTextTemplate.parse("{date:dd.MM.yyyy}", "yyMMdd").evaluate(PROCESS.forRecord("1")));
+        assertEquals("2024-03-07T14:30:00Z", MarcTextTemplate.parse("{exportTimestamp}", "yyMMdd").evaluate(PROCESS.forRecord("1")));
+    }
+
+    @Test
+    public void testDateTokensWithDifferentPatternsInTheSameRecord() {
+        // {date} of a control field and {date:pattern} of a marc field are cached separately in the same record
+        MarcRecordContext context = PROCESS.forRecord("1");
+        assertEquals("240307", MarcTextTemplate.parse("{date}", "yyMMdd").evaluate(context));
+        assertEquals("2024-03-07", MarcTextTemplate.parse("{date:yyyy-MM-dd}", "yyMMdd").evaluate(context));
+        assertEquals("2024-03-07", MarcTextTemplate.parse("{date}", "yyyy-MM-dd").evaluate(context));
+        assertEquals("240307", MarcTextTemplate.parse("{date:yyMMdd}", "yyyy-MM-dd").evaluate(context));
+    }
+
+    @Test
+    public void testValuesAreCachedPerRecord() {
+        AtomicInteger evaluations = new AtomicInteger();
+        MarcRecordContext first = PROCESS.forRecord("1");
+        assertEquals("1", first.getValue("counter", context -> String.valueOf(evaluations.incrementAndGet())));
+        assertEquals("1", first.getValue("counter", context -> String.valueOf(evaluations.incrementAndGet())));
+
+        MarcRecordContext second = PROCESS.forRecord("2");
+        assertEquals("2", second.getValue("counter", context -> String.valueOf(evaluations.incrementAndGet())));
+
+        MarcTextTemplate identifier = MarcTextTemplate.parse("{identifier}", "yyyy-MM-dd");
+        assertEquals("1", identifier.evaluate(first));
+        assertEquals("2", identifier.evaluate(second));
+    }
+
+    @Test
+    public void testUnknownTokenIsKept() {
+        MarcTextTemplate template = MarcTextTemplate.parse("{unknown} {processId}", "yyyy-MM-dd");
+        assertEquals("{unknown} 42", template.evaluate(PROCESS.forRecord("1")));
+
+        MarcTextTemplate onlyUnknown = MarcTextTemplate.parse("{unknown}", "yyyy-MM-dd");
+        assertFalse(onlyUnknown.hasTokens());
+        assertEquals("{unknown}", onlyUnknown.evaluate(PROCESS.forRecord("1")));
+    }
+
+    @Test
+    public void testUnclosedBraceIsKept() {
+        assertEquals("abc {date", MarcTextTemplate.parse("abc {date", "yyyy-MM-dd").evaluate(PROCESS.forRecord("1")));
+        assertEquals("2024-03-07 {", MarcTextTemplate.parse("{date} {", "yyyy-MM-dd").evaluate(PROCESS.forRecord("1")));
+        assertEquals("{42", MarcTextTemplate.parse("{{processId}", "yyyy-MM-dd").evaluate(PROCESS.forRecord("1")));
+    }
+
+    @Test
+    public void testInvalidPatternIsKept() {
+        MarcTextTemplate template = MarcTextTemplate.parse("{date:yyyy-bb} {processId}", "yyyy-MM-dd");
+        assertEquals("{date:yyyy-bb} 42", template.evaluate(PROCESS.forRecord("1")));
+    }
+}
@@ -0,0 +1,152 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.junit.Test;
+
+public class MarcValueNormalizerTest {
+
+    private static final Namespace MARC = Namespace.getNamespace("marc", "http://www.loc.gov/MARC21/slim");
+
+    // e followed by a combining acute accent
+    private static final String DECOMPOSED = "Cafe\u0301";
+
+    private static final String COMPOSED = "Caf\u00e9";
+
+    @Test
+    public void testDisabled() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("none", false, 0);
+        assertFalse(normalizer.isEnabled());
+        assertFalse(normalizer.isFieldLengthLimited());
+        assertSame(DECOMPOSED, normalizer.normalize(DECOMPOSED));
+        assertEquals(null, normalizer.normalize(null));
+    }
+
+    @Test
+    public void testAsciiFastPath() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("NFC", true, 0);
+        String value = "Plain ASCII value";
+        assertSame(value, normalizer.normalize(value));
+    }
+
+    @Test
+    public void testAlreadyNormalizedValueIsNotCopied() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("NFC", false, 0);
+        assertSame(COMPOSED, normalizer.normalize(COMPOSED));
+    }
+
+    @Test
+    public void testUnicodeForms() {
+        assertEquals(COMPOSED, new MarcValueNormalizer("NFC", false, 0).normalize(DECOMPOSED));
+        assertEquals(DECOMPOSED, new MarcValueNormalizer("nfd", false, 0).normalize(COMPOSED));
+    }
+
+    @Test
+    public void testStripControlCharacters() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("none", true, 0);
+        assertEquals("first line second line", normalizer.normalize("first line\nsecond\u0000 line"));
+        assertEquals("tab value", normalizer.normalize("tab\tvalue"));
+        assertEquals(COMPOSED + "  x", normalizer.normalize(COMPOSED + "\r\nx"));
+    }
+
+    @Test
+    public void testNormalizationDoesNotLimitValues() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("NFC", true, 10);
+        String value = DECOMPOSED + " with a long text";
+        assertEquals(COMPOSED + " with a long text", normalizer.normalize(value));
+    }
+
+    @Test
+    public void testTruncateUtf8Bytes() {
+        assertEquals("abc", MarcValueNormalizer.truncate("abc", 3));
+        assertEquals("ab", MarcValueNormalizer.truncate("abc", 2));
+        // the accented character needs two bytes and is not split
+        assertEquals("Caf", MarcValueNormalizer.truncate(COMPOSED, 4));
+        assertEquals(COMPOSED, MarcValueNormalizer.truncate(COMPOSED, 5));
+        // a surrogate pair needs four bytes and is not split
+        String emoji = "a\uD83D\uDE00b";
+        assertEquals("a", MarcValueNormalizer.truncate(emoji, 4));
+        assertEquals("a\uD83D\uDE00", MarcValueNormalizer.truncate(emoji, 5));
+    }
+
+    @Test
+    public void testLimitDataField() {
+        // 2 indicators + (2 + 5) + (2 + 5) + terminator = 17 bytes
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("none", false, 14);
+        Element field = createDataField("Title", "Rest.", "More.");
+        normalizer.limitFieldLength(field);
+
+        assertEquals(2, field.getChildren().size());
+        assertEquals("Title", field.getChildren().get(0).getText());
+        assertEquals("Re", field.getChildren().get(1).getText());
+        assertEquals(14, getFieldLength(field));
+    }
+
+    @Test
+    public void testLimitRemovesFollowingSubfields() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("none", false, 10);
+        Element field = createDataField("Title", "Rest", "More");
+        normalizer.limitFieldLength(field);
+
+        assertEquals(1, field.getChildren().size());
+        assertEquals("Title", field.getChildren().get(0).getText());
+    }
+
+    @Test
+    public void testLimitKeepsShortFieldsAndWrapper() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("none", false, 9999);
+        Element field = createDataField("[Title]");
+        normalizer.limitFieldLength(field);
+        assertEquals("[Title]", field.getChildren().get(0).getText());
+    }
+
+    @Test
+    public void testLimitControlField() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("none", false, 5);
+        Element field = new Element("controlfield", MARC);
+        field.setAttribute("tag", "001");
+        field.setText("123456");
+        normalizer.limitFieldLength(field);
+        assertEquals("1234", field.getText());
+    }
+
+    @Test
+    public void testLimitCountsBytes() {
+        MarcValueNormalizer normalizer = new MarcValueNormalizer("none", false, 9);
+        Element field = createDataField(COMPOSED + COMPOSED);
+        normalizer.limitFieldLength(field);
+        // 9 - terminator - indicators - delimiter and code leaves 4 bytes, the accented character needs two of them
+        assertEquals("Caf", field.getChildren().get(0).getText());
+        assertTrue(getFieldLength(field) <= 9);
+    }
+
+    private static Element createDataField(String... values) {
+        Element field = new Element("datafield", MARC);
+        field.setAttribute("tag", "245");
+        field.setAttribute("ind1", "1");
+        field.setAttribute("ind2", "0");
+        char code = 'a';
+        for (String value : values) {
+            Element subfield = new Element("subfield", MARC);
+            subfield.setAttribute("code", String.valueOf(code++));
+            subfield.setText(value);
+            field.addContent(subfield);
+        }
+        return field;
+    }
+
+    private static int getFieldLength(Element field) {
+        int length = 3;
+        for (Element subfield : field.getChildren()) {
+            length += 2 + subfield.getText().getBytes(StandardCharsets.UTF_8).length;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,360 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.input.SAXBuilder;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Differential harness that compares the records of a frozen copy of the first version of the mapping ({@link BaselineMarcExport}) with the
+ * records of one or more candidate engines. The harness is disabled by default, run it with
+ *
+ * <pre>
+ * mvn test -Dtest=MarcexportEquivalenceTest -Dmarcexport.equivalence=true -Dmarcexport.equivalence.corpus=/path/to/metadata
+ * </pre>
+ *
+ * The corpus folder is searched recursively for meta.xml files, without it a synthetic corpus is generated, see {@link MarcexportThroughputTest}
+ * for the size properties. The reference uses the configuration in marcexport.equivalence.reference (default: marcexport_reference_config.xml of
+ * the test resources), it must only contain settings that the first version supported. The candidates are given as comma separated configuration
+ * files in marcexport.equivalence.candidates; by default the reference configuration is exported by the current engine in both output formats.
+ * Candidate configurations that use newer settings, like analytic records or fixed length control fields, report their effects as mismatches.
+ * <p>
+ * Both sides are compared the way they are written: the output of {@link BaselineMarcExport#writeDocument} and the output of
+ * {@link MarcExportEngine#writeRecord} are parsed again and compared field by field, including leading and trailing blanks of the values.
+ * Intended output changes of the current engine are listed in {@link #KNOWN_DIFFERENCES}, fields that differ only in such a way are counted per
+ * candidate but are no mismatch. Mismatches, known differences and the speed ratio are written into target/marcexport-equivalence.txt or into
+ * the file given in marcexport.equivalence.output.
+ */
+public class MarcexportEquivalenceTest {
+
+    private static final String PROPERTY_PREFIX = "marcexport.equivalence.";
+
+    // number of mismatching records that are reported in detail per candidate
+    private static final int MAX_REPORTED_RECORDS = 50;
+
+    // article with an apostrophe at the start of a title, directly followed by the next word
+    private static final Pattern ELIDED_ARTICLE = Pattern.compile("^(\\p{L}{1,2}')\\p{L}");
+
+    /**
+     * Intended differences between the first version and the current engine. Each entry gets the reference field and the candidate field at the
+     * same position and returns true, if the candidate field is an expected replacement of the reference field.
+     */
+    private static final Map<String, BiPredicate<Element, Element>> KNOWN_DIFFERENCES = new LinkedHashMap<>();
+
+    static {
+        // the first version only knew elided articles followed by a blank, the article table counts L'histoire as 2 non-filing characters
+        KNOWN_DIFFERENCES.put("non-filing characters of elided articles", (expected, actual) -> {
+            if (!"0".equals(expected.getAttributeValue("ind2")) || expected.getChildren().isEmpty()) {
+                return false;
+            }
+            Matcher matcher = ELIDED_ARTICLE.matcher(expected.getChildren().get(0).getText());
+            if (!matcher.find()) {
+                return false;
+            }
+            Element corrected = expected.clone();
+            corrected.setAttribute("ind2", String.valueOf(matcher.group(1).length()));
+            return getField(corrected).equals(getField(actual));
+        });
+    }
+
+    private static String resourcesFolder;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+
+        String log4jFile = resourcesFolder + "log4j2.xml"; // for junit tests in eclipse
+
+        System.setProperty("log4j.configurationFile", log4jFile);
+    }
+
+    @Test
+    public void testEquivalence() throws Exception {
+        Assume.assumeTrue("equivalence harness is disabled, enable it with -Dmarcexport.equivalence=true", Boolean.getBoolean("marcexport.equivalence"));
+
+        Prefs prefs = MarcExportRulesetCache.getRuleset(Paths.get(System.getProperty(PROPERTY_PREFIX + "ruleset", resourcesFolder + "ruleset.xml")))
+                .getPrefs();
+        List<Path> metsFiles = getCorpus(prefs);
+
+        String referenceConfig = System.getProperty(PROPERTY_PREFIX + "reference", resourcesFolder + "marcexport_reference_config.xml");
+        BaselineMarcExport reference = new BaselineMarcExport(loadConfiguration(referenceConfig, null));
+
+        Map<String, MarcExportEngine> candidates = new LinkedHashMap<>();
+        String candidateConfigs = System.getProperty(PROPERTY_PREFIX + "candidates");
+        if (StringUtils.isBlank(candidateConfigs)) {
+            candidates.put(referenceConfig + " (marcxml)", new MarcExportEngine(loadConfiguration(referenceConfig, "marcxml")));
+            candidates.put(referenceConfig + " (marcxml-compact)", new MarcExportEngine(loadConfiguration(referenceConfig, "marcxml-compact")));
+        } else {
+            for (String candidateConfig : candidateConfigs.split(",")) {
+                candidates.put(candidateConfig.trim(), new MarcExportEngine(loadConfiguration(candidateConfig.trim(), null)));
+            }
+        }
+
+        StringBuilder report = new StringBuilder();
+        report.append("Reference: first version with ").append(referenceConfig).append('\n');
+        report.append("Processes: ").append(metsFiles.size()).append("\n\n");
+
+        long referenceTime = 0;
+        long[] candidateTimes = new long[candidates.size()];
+        int[] mismatches = new int[candidates.size()];
+        List<List<String>> details = new ArrayList<>();
+        List<Map<String, Integer>> knownDifferenceCounts = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            details.add(new ArrayList<>());
+            knownDifferenceCounts.add(new TreeMap<>());
+        }
+
+        for (Path metsFile : metsFiles) {
+            Fileformat fileformat = new MetsMods(prefs);
+            fileformat.read(metsFile.toString());
+            // both exports use the same time for {date}
+            ZonedDateTime exportTime = ZonedDateTime.now();
+
+            long start = System.nanoTime();
+            Map<String, byte[]> expected = exportReference(reference, fileformat, prefs, exportTime);
+            referenceTime += System.nanoTime() - start;
+
+            int index = 0;
+            for (MarcExportEngine candidate : candidates.values()) {
+                MarcRecordContext processContext = new MarcRecordContext(metsFile.getParent().getFileName().toString(), null, exportTime);
+                start = System.nanoTime();
+                Map<String, byte[]> actual = exportCandidate(candidate, fileformat, prefs, processContext);
+                candidateTimes[index] += System.nanoTime() - start;
+
+                List<String> differences = compare(expected, actual, knownDifferenceCounts.get(index));
+                if (!differences.isEmpty()) {
+                    mismatches[index]++;
+                    if (details.get(index).size() < MAX_REPORTED_RECORDS) {
+                        details.get(index).add(metsFile + "\n" + String.join("\n", differences));
+                    }
+                }
+                index++;
+            }
+        }
+
+        int index = 0;
+        for (String candidateName : candidates.keySet()) {
+            report.append("Candidate: ").append(candidateName).append('\n');
+            report.append("  processes with mismatches: ").append(mismatches[index]).append('\n');
+            for (Map.Entry<String, Integer> entry : knownDifferenceCounts.get(index).entrySet()) {
+                report.append("  known difference '").append(entry.getKey()).append("': ").append(entry.getValue()).append(" fields\n");
+            }
+            report.append("  speed ratio (reference time / candidate time): ")
+                    .append(String.format(Locale.ROOT, "%.3f", candidateTimes[index] == 0 ? 0d : (double) referenceTime / candidateTimes[index]))
+                    .append('\n');
+            for (String detail : details.get(index)) {
+                report.append(detail).append('\n');
+            }
+            report.append('\n');
+            index++;
+        }
+
+        Path resultFile = Paths.get(System.getProperty(PROPERTY_PREFIX + "output", "target/marcexport-equivalence.txt"));
+        if (resultFile.getParent() != null) {
+            Files.createDirectories(resultFile.getParent());
+        }
+        Files.write(resultFile, report.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (int mismatch : mismatches) {
+            assertEquals("records differ from the reference, see " + resultFile, 0, mismatch);
+        }
+    }
+
+    /**
+     * Export a process with the first version and its output format
+     *
+     * @return serialized records by identifier, or null if the export failed
+     */
+    private Map<String, byte[]> exportReference(BaselineMarcExport reference, Fileformat fileformat, Prefs prefs, ZonedDateTime exportTime)
+            throws IOException {
+        Map<String, Document> documents;
+        try {
+            documents = reference.createDocuments(fileformat, prefs, Date.from(exportTime.toInstant()));
+        } catch (RuntimeException e) {
+            return null; // NOSONAR
+        }
+        if (documents == null) {
+            return null; // NOSONAR
+        }
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        for (Map.Entry<String, Document> entry : documents.entrySet()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reference.writeDocument(entry.getValue(), out);
+            output.put(entry.getKey(), out.toByteArray());
+        }
+        return output;
+    }
+
+    /**
+     * Export a process the same way the step plugin does it: all records are created first, invalid records are handled according to the
+     * validation mode and the remaining ones are serialized.
+     *
+     * @return serialized records by identifier, or null if the export failed
+     */
+    private Map<String, byte[]> exportCandidate(MarcExportEngine engine, Fileformat fileformat, Prefs prefs, MarcRecordContext processContext)
+            throws IOException {
+        MarcRecordValidator validator = new MarcRecordValidator(engine.getValidationMode());
+        List<MarcRecord> created;
+        try {
+            created = engine.createRecords(fileformat, prefs, validator, new MetadataIndex(), processContext);
+        } catch (RuntimeException e) {
+            return null; // NOSONAR
+        }
+        if (created == null) {
+            return null; // NOSONAR
+        }
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        for (MarcRecord marcRecord : created) {
+            MarcRecordValidator.Action action = validator.getAction(marcRecord);
+            if (action == MarcRecordValidator.Action.FAIL) {
+                return null; // NOSONAR
+            } else if (action == MarcRecordValidator.Action.SKIP) {
+                continue;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            engine.writeRecord(marcRecord, out);
+            output.put(marcRecord.getIdentifier(), out.toByteArray());
+        }
+        return output;
+    }
+
+    /**
+     * Compare the written records of a process field by field
+     *
+     * @param knownDifferenceCounts receives the number of fields per known difference
+     * @return list of differences, empty if both exports are equivalent
+     */
+    private List<String> compare(Map<String, byte[]> expected, Map<String, byte[]> actual, Map<String, Integer> knownDifferenceCounts)
+            throws Exception {
+        List<String> differences = new ArrayList<>();
+        if (expected == null || actual == null) {
+            if (expected != null || actual != null) {
+                differences.add("  export failed in " + (expected == null ? "reference" : "candidate"));
+            }
+            return differences;
+        }
+        if (!expected.keySet().equals(actual.keySet())) {
+            differences.add("  records: expected " + expected.keySet() + " but was " + actual.keySet());
+        }
+        for (Map.Entry<String, byte[]> entry : actual.entrySet()) {
+            byte[] expectedRecord = expected.get(entry.getKey());
+            if (expectedRecord != null) {
+                List<Element> expectedFields = parse(expectedRecord).getRootElement().getChildren();
+                List<Element> actualFields = parse(entry.getValue()).getRootElement().getChildren();
+                addDifferences(differences, knownDifferenceCounts, entry.getKey(), expectedFields, actualFields);
+            }
+        }
+        return differences;
+    }
+
+    private static void addDifferences(List<String> differences, Map<String, Integer> knownDifferenceCounts, String identifier,
+            List<Element> expectedFields, List<Element> actualFields) {
+        for (int i = 0; i < Math.max(expectedFields.size(), actualFields.size()); i++) {
+            Element expectedField = i < expectedFields.size() ? expectedFields.get(i) : null;
+            Element actualField = i < actualFields.size() ? actualFields.get(i) : null;
+            String expectedLine = expectedField == null ? "<missing>" : getField(expectedField);
+            String actualLine = actualField == null ? "<missing>" : getField(actualField);
+            if (expectedLine.equals(actualLine)) {
+                continue;
+            }
+            String knownDifference = expectedField == null || actualField == null ? null : getKnownDifference(expectedField, actualField);
+            if (knownDifference != null) {
+                knownDifferenceCounts.merge(knownDifference, 1, Integer::sum);
+            } else {
+                differences.add("  " + identifier + " field " + i + ":\n    - " + expectedLine + "\n    + " + actualLine);
+            }
+        }
+    }
+
+    private static String getKnownDifference(Element expectedField, Element actualField) {
+        for (Map.Entry<String, BiPredicate<Element, Element>> entry : KNOWN_DIFFERENCES.entrySet()) {
+            if (entry.getValue().test(expectedField, actualField)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private static Document parse(byte[] serializedRecord) throws Exception {
+        return new SAXBuilder().build(new ByteArrayInputStream(serializedRecord));
+    }
+
+    /**
+     * Convert a field into one line, so that indentation and attribute order do not matter. Values are quoted to show leading and trailing
+     * blanks.
+     */
+    private static String getField(Element field) {
+        StringBuilder line = new StringBuilder();
+        if ("leader".equals(field.getName())) {
+            line.append("LDR '").append(field.getText()).append('\'');
+        } else if ("controlfield".equals(field.getName())) {
+            line.append(field.getAttributeValue("tag")).append(" '").append(field.getText()).append('\'');
+        } else {
+            line.append(field.getAttributeValue("tag"))
+                    .append(' ')
+                    .append(StringUtils.defaultString(field.getAttributeValue("ind1")).replace(' ', '_'))
+                    .append(StringUtils.defaultString(field.getAttributeValue("ind2")).replace(' ', '_'));
+            for (Element subfield : field.getChildren()) {
+                line.append(" $").append(subfield.getAttributeValue("code")).append('\'').append(subfield.getText()).append('\'');
+            }
+        }
+        return line.toString();
+    }
+
+    private static XMLConfiguration loadConfiguration(String file, String outputFormat) throws Exception {
+        XMLConfiguration config = new XMLConfiguration(file);
+        if (outputFormat != null) {
+            config.setProperty("outputFormat", outputFormat);
+        }
+        config.setExpressionEngine(new XPathExpressionEngine());
+        return config;
+    }
+
+    private List<Path> getCorpus(Prefs prefs) throws Exception {
+        String corpus = System.getProperty(PROPERTY_PREFIX + "corpus");
+        if (StringUtils.isBlank(corpus)) {
+            Path corpusFolder = Files.createTempDirectory("marcexport-equivalence");
+            return new SyntheticProcessGenerator(prefs, 42).generateCorpus(corpusFolder,
+                    SyntheticProcessGenerator.CorpusSize.fromSystemProperties(PROPERTY_PREFIX));
+        }
+        try (Stream<Path> files = Files.walk(Paths.get(corpus))) {
+            return files.filter(p -> "meta.xml".equals(p.getFileName().toString())).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Throughput harness for the complete export path of the step: ruleset lookup, scheduled read of the METS file, map to MARC, validate, serialize
+ * and write with the configured layout, index and event log. The harness is disabled by default, run it with
+ *
+ * <pre>
+ * mvn test -Dtest=MarcexportThroughputTest -Dmarcexport.harness=true -Dmarcexport.harness.monographs=1000
+ * </pre>
+ *
+ * The sizes of the synthetic corpus can be changed with the properties marcexport.harness.monographs, .periodicals, .volumesPerPeriodical,
+ * .articlesPerVolume, .largeGroupRecords, .groupsPerRecord, .manyPersonRecords and .personsPerRecord. The layout of the export folder can be
+ * changed with marcexport.harness.layout (process or sharded). The results are written as JSON into target/marcexport-throughput.json or into
+ * the file given in marcexport.harness.output.
+ */
+public class MarcexportThroughputTest {
+
+    private static final String PROPERTY_PREFIX = "marcexport.harness.";
+
+    private static final String PROJECT_NAME = "harness";
+
+    private static String resourcesFolder;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+
+        String log4jFile = resourcesFolder + "log4j2.xml"; // for junit tests in eclipse
+
+        System.setProperty("log4j.configurationFile", log4jFile);
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        Assume.assumeTrue("throughput harness is disabled, enable it with -Dmarcexport.harness=true", Boolean.getBoolean("marcexport.harness"));
+
+        Prefs prefs = MarcExportRulesetCache.getRuleset(Paths.get(resourcesFolder + "ruleset.xml")).getPrefs();
+
+        Path corpusFolder = Files.createTempDirectory("marcexport-corpus");
+        Path outputFolder = Files.createTempDirectory("marcexport-output");
+
+        XMLConfiguration config = new XMLConfiguration(resourcesFolder + "marcexport_config.xml");
+        config.setProperty("exportFolder", outputFolder.toString());
+        config.setProperty("exportLayout[@type]", System.getProperty(PROPERTY_PREFIX + "layout", "process"));
+        config.setExpressionEngine(new XPathExpressionEngine());
+        MarcExportEngine engine = new MarcExportEngine(config);
+
+        SyntheticProcessGenerator.CorpusSize size = SyntheticProcessGenerator.CorpusSize.fromSystemProperties(PROPERTY_PREFIX);
+        List<Path> metsFiles = new SyntheticProcessGenerator(prefs, 42).generateCorpus(corpusFolder, size);
+
+        // warm up, the results are discarded
+        int warmup = Math.min(metsFiles.size(), Integer.getInteger(PROPERTY_PREFIX + "warmup", 20));
+        for (int i = 0; i < warmup; i++) {
+            exportProcess(engine, prefs, metsFiles.get(i), new ArrayList<>());
+        }
+
+        resetPeakHeap();
+        List<Long> latencies = new ArrayList<>();
+        long bytesWritten = 0;
+        long start = System.nanoTime();
+        for (Path metsFile : metsFiles) {
+            bytesWritten += exportProcess(engine, prefs, metsFile, latencies);
+        }
+        long duration = System.nanoTime() - start;
+        long peakHeap = getPeakHeap();
+
+        Collections.sort(latencies);
+        double seconds = duration / 1_000_000_000d;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"corpus\": {");
+        json.append("\"monographs\": ").append(size.getMonographs());
+        json.append(", \"periodicals\": ").append(size.getPeriodicals());
+        json.append(", \"volumesPerPeriodical\": ").append(size.getVolumesPerPeriodical());
+        json.append(", \"articlesPerVolume\": ").append(size.getArticlesPerVolume());
+        json.append(", \"largeGroupRecords\": ").append(size.getLargeGroupRecords());
+        json.append(", \"groupsPerRecord\": ").append(size.getGroupsPerRecord());
+        json.append(", \"manyPersonRecords\": ").append(size.getManyPersonRecords());
+        json.append(", \"personsPerRecord\": ").append(size.getPersonsPerRecord());
+        json.append("},\n");
+        json.append("  \"processes\": ").append(metsFiles.size()).append(",\n");
+        json.append("  \"records\": ").append(latencies.size()).append(",\n");
+        json.append("  \"durationMs\": ").append(duration / 1_000_000).append(",\n");
+        json.append("  \"recordsPerSecond\": ").append(String.format(Locale.ROOT, "%.2f", latencies.size() / seconds)).append(",\n");
+        json.append("  \"latencyP50Ms\": ").append(String.format(Locale.ROOT, "%.3f", percentile(latencies, 50) / 1_000_000d)).append(",\n");
+        json.append("  \"latencyP99Ms\": ").append(String.format(Locale.ROOT, "%.3f", percentile(latencies, 99) / 1_000_000d)).append(",\n");
+        json.append("  \"peakHeapBytes\": ").append(peakHeap).append(",\n");
+        json.append("  \"bytesWritten\": ").append(bytesWritten).append("\n");
+        json.append("}\n");
+
+        Path resultFile = Paths.get(System.getProperty(PROPERTY_PREFIX + "output", "target/marcexport-throughput.json"));
+        if (resultFile.getParent() != null) {
+            Files.createDirectories(resultFile.getParent());
+        }
+        Files.write(resultFile, json.toString().getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(latencies.size() >= metsFiles.size());
+    }
+
+    /**
+     * Export a single process the same way the step plugin does it. The latency of a record is the time to create, validate, serialize and write
+     * it plus its share of reading the METS file.
+     *
+     * @return number of bytes written
+     */
+    private long exportProcess(MarcExportEngine engine, Prefs prefs, Path metsFile, List<Long> latencies) throws Exception {
+        String processId = metsFile.getParent().getFileName().toString();
+
+        Fileformat fileformat;
+        long readTime;
+        try (MarcExportScheduler.Permit permit = MarcExportScheduler.getReadScheduler().acquire(PROJECT_NAME, false)) {
+            long readStart = System.nanoTime();
+            fileformat = new MetsMods(prefs);
+            fileformat.read(metsFile.toString());
+            readTime = System.nanoTime() - readStart;
+        }
+
+        MarcProfileExporter exporter = new MarcProfileExporter(engine, processId, PROJECT_NAME, false, readTime);
+        assertTrue(exporter.export(fileformat, prefs, new MetadataIndex(), new MarcRecordContext(processId, processId, ZonedDateTime.now())));
+
+        List<MarcRecord> records = exporter.getWrittenRecords();
+        long bytes = 0;
+        for (MarcRecord marcRecord : records) {
+            bytes += marcRecord.getOutputBytes();
+            long recordTime = marcRecord.getMappingTime() + marcRecord.getValidationTime() + marcRecord.getWriteTime();
+            latencies.add(recordTime + readTime / records.size());
+        }
+        return bytes;
+    }
+
+    private static long percentile(List<Long> sortedValues, int percentile) {
+        if (sortedValues.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100d * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, Math.min(index, sortedValues.size() - 1)));
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,49 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class NonFilingArticleTableTest {
+
+    @Test
+    public void testDefaultArticles() {
+        NonFilingArticleTable table = NonFilingArticleTable.createDefault();
+        assertEquals(2, table.getNonFilingCount("A history", null));
+        assertEquals(3, table.getNonFilingCount("An example", null));
+        assertEquals(4, table.getNonFilingCount("The title", null));
+        assertEquals(6, table.getNonFilingCount("Einem Freund", null));
+        assertEquals(3, table.getNonFilingCount("L' uomo", null));
+        assertEquals(4, table.getNonFilingCount("Un' altra", null));
+        assertEquals(5, table.getNonFilingCount("Unas cosas", null));
+        assertEquals(0, table.getNonFilingCount("Analysis", null));
+        assertEquals(0, table.getNonFilingCount("The", null));
+        assertEquals(0, table.getNonFilingCount("", null));
+        // the default table is case sensitive
+        assertEquals(0, table.getNonFilingCount("THE TITLE", null));
+    }
+
+    @Test
+    public void testApostrophe() {
+        NonFilingArticleTable table = NonFilingArticleTable.createDefault();
+        assertEquals(2, table.getNonFilingCount("L'uomo", null));
+        assertEquals(2, table.getNonFilingCount("L’uomo", null));
+        assertEquals(3, table.getNonFilingCount("Un'altra", null));
+    }
+
+    @Test
+    public void testLanguageArticles() {
+        NonFilingArticleTable table = new NonFilingArticleTable(true);
+        table.addArticle(null, "The");
+        table.addArticle("ita", "Il");
+        table.addArticle("ita", "Dell'");
+
+        assertEquals(4, table.getNonFilingCount("THE TITLE", null));
+        assertEquals(4, table.getNonFilingCount("the title", "ger"));
+        assertEquals(3, table.getNonFilingCount("Il nome", "ita"));
+        assertEquals(5, table.getNonFilingCount("Dell'arte", "ita"));
+        // only the articles of the language are used
+        assertEquals(0, table.getNonFilingCount("The title", "ita"));
+        assertEquals(0, table.getNonFilingCount("Il nome", "eng"));
+    }
+}
@@ -0,0 +1,225 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import lombok.Data;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataGroup;
+import ugh.dl.Person;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Generates synthetic METS/MODS processes based on the test ruleset. The generated values are reproducible for a given seed.
+ */
+public class SyntheticProcessGenerator {
+
+    private static final String[] TITLE_PREFIXES = { "", "The ", "Die ", "Der ", "L'", "La ", "Il ", "Un ", "A ", "Les " };
+    private static final String[] WORDS = { "history", "Geschichte", "économie", "Übersicht", "studies", "Wörterbuch", "società", "analysis",
+            "Entwicklung", "archive", "Österreich", "naïve", "method", "Zürich", "catalogue" };
+    private static final String[] LANGUAGES = { "ger", "eng", "fre", "ita", "lat" };
+    private static final String[] FIRSTNAMES = { "Anna", "Jürgen", "Chloé", "Marco", "Zoë", "Hans", "Ingrid", "José" };
+    private static final String[] LASTNAMES = { "Müller", "Smith", "Dupont", "Rossi", "Schröder", "García", "Nowak", "Öztürk" };
+
+    private final Prefs prefs;
+    private final Random random;
+
+    private int identifierCounter = 0;
+    private int processCounter = 0;
+
+    /**
+     * Sizes of a generated corpus
+     */
+    @Data
+    public static class CorpusSize {
+        private int monographs = 20;
+        private int periodicals = 2;
+        private int volumesPerPeriodical = 10;
+        private int articlesPerVolume = 5;
+        private int largeGroupRecords = 5;
+        private int groupsPerRecord = 200;
+        private int manyPersonRecords = 5;
+        private int personsPerRecord = 200;
+
+        /**
+         * Read the corpus size from system properties with the given prefix, e.g. prefix.monographs
+         */
+        public static CorpusSize fromSystemProperties(String prefix) {
+            CorpusSize size = new CorpusSize();
+            size.setMonographs(Integer.getInteger(prefix + "monographs", size.getMonographs()));
+            size.setPeriodicals(Integer.getInteger(prefix + "periodicals", size.getPeriodicals()));
+            size.setVolumesPerPeriodical(Integer.getInteger(prefix + "volumesPerPeriodical", size.getVolumesPerPeriodical()));
+            size.setArticlesPerVolume(Integer.getInteger(prefix + "articlesPerVolume", size.getArticlesPerVolume()));
+            size.setLargeGroupRecords(Integer.getInteger(prefix + "largeGroupRecords", size.getLargeGroupRecords()));
+            size.setGroupsPerRecord(Integer.getInteger(prefix + "groupsPerRecord", size.getGroupsPerRecord()));
+            size.setManyPersonRecords(Integer.getInteger(prefix + "manyPersonRecords", size.getManyPersonRecords()));
+            size.setPersonsPerRecord(Integer.getInteger(prefix + "personsPerRecord", size.getPersonsPerRecord()));
+            return size;
+        }
+    }
+
+    public SyntheticProcessGenerator(Prefs prefs, long seed) {
+        this.prefs = prefs;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generate a corpus of processes. Each process is written into its own sub folder as meta.xml, anchor data is written into meta_anchor.xml
+     *
+     * @param folder target folder
+     * @param size number and kind of processes to generate
+     * @return list of generated meta.xml files
+     */
+    public List<Path> generateCorpus(Path folder, CorpusSize size) throws Exception {
+        List<Path> metsFiles = new ArrayList<>();
+        for (int i = 0; i < size.getMonographs(); i++) {
+            metsFiles.add(write(folder, createMonograph(3, 2, 0)));
+        }
+        for (int i = 0; i < size.getPeriodicals(); i++) {
+            String periodicalTitle = createTitle();
+            String periodicalIdentifier = nextIdentifier();
+            for (int j = 1; j <= size.getVolumesPerPeriodical(); j++) {
+                metsFiles.add(write(folder, createPeriodicalVolume(periodicalTitle, periodicalIdentifier, j, size.getArticlesPerVolume())));
+            }
+        }
+        for (int i = 0; i < size.getLargeGroupRecords(); i++) {
+            metsFiles.add(write(folder, createMonograph(3, 2, size.getGroupsPerRecord())));
+        }
+        for (int i = 0; i < size.getManyPersonRecords(); i++) {
+            metsFiles.add(write(folder, createMonograph(size.getPersonsPerRecord(), size.getPersonsPerRecord() / 4, 0)));
+        }
+        return metsFiles;
+    }
+
+    public Fileformat createMonograph(int persons, int subjects, int groups) throws UGHException {
+        Fileformat fileformat = new MetsMods(prefs);
+        DigitalDocument digDoc = new DigitalDocument();
+        fileformat.setDigitalDocument(digDoc);
+
+        DocStruct monograph = digDoc.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        digDoc.setLogicalDocStruct(monograph);
+        addMetadata(monograph, "CatalogIDDigital", nextIdentifier());
+        addMetadata(monograph, "TitleDocMain", createTitle());
+        addMetadata(monograph, "TitleDocSub1", createText(6));
+        addMetadata(monograph, "DocLanguage", LANGUAGES[random.nextInt(LANGUAGES.length)]);
+        addMetadata(monograph, "PlaceOfPublication", "Wien");
+        addMetadata(monograph, "PublisherName", createText(2));
+        addMetadata(monograph, "PublicationYear", String.valueOf(1800 + random.nextInt(220)));
+        for (int i = 0; i < subjects; i++) {
+            addMetadata(monograph, "SubjectTopic", createText(2));
+        }
+        for (int i = 0; i < persons; i++) {
+            addPerson(monograph, i == 0 ? "Author" : "Editor");
+        }
+        for (int i = 0; i < groups; i++) {
+            addContainedTitle(monograph);
+        }
+
+        addPhysicalStructure(digDoc);
+        return fileformat;
+    }
+
+    public Fileformat createPeriodicalVolume(String periodicalTitle, String periodicalIdentifier, int volumeNumber, int articles)
+            throws UGHException {
+        Fileformat fileformat = new MetsMods(prefs);
+        DigitalDocument digDoc = new DigitalDocument();
+        fileformat.setDigitalDocument(digDoc);
+
+        DocStruct periodical = digDoc.createDocStruct(prefs.getDocStrctTypeByName("Periodical"));
+        digDoc.setLogicalDocStruct(periodical);
+        addMetadata(periodical, "CatalogIDDigital", periodicalIdentifier);
+        addMetadata(periodical, "TitleDocMain", periodicalTitle);
+        addMetadata(periodical, "DocLanguage", "ger");
+
+        DocStruct volume = digDoc.createDocStruct(prefs.getDocStrctTypeByName("PeriodicalVolume"));
+        periodical.addChild(volume);
+        addMetadata(volume, "CatalogIDDigital", periodicalIdentifier + "_" + volumeNumber);
+        addMetadata(volume, "TitleDocMain", periodicalTitle + " " + volumeNumber);
+        addMetadata(volume, "CurrentNo", String.valueOf(volumeNumber));
+        addMetadata(volume, "PublicationYear", String.valueOf(1900 + volumeNumber));
+        addMetadata(volume, "SubjectTopic", createText(2));
+        addPerson(volume, "Editor");
+
+        for (int i = 0; i < articles; i++) {
+            DocStruct article = digDoc.createDocStruct(prefs.getDocStrctTypeByName("Article"));
+            volume.addChild(article);
+            addMetadata(article, "TitleDocMain", createTitle());
+            addMetadata(article, "DocLanguage", LANGUAGES[random.nextInt(LANGUAGES.length)]);
+            addPerson(article, "Author");
+        }
+
+        addPhysicalStructure(digDoc);
+        return fileformat;
+    }
+
+    private Path write(Path folder, Fileformat fileformat) throws Exception {
+        processCounter++;
+        Path processFolder = folder.resolve("process_" + processCounter);
+        Files.createDirectories(processFolder);
+        Path metsFile = processFolder.resolve("meta.xml");
+        fileformat.write(metsFile.toString());
+        return metsFile;
+    }
+
+    private void addPhysicalStructure(DigitalDocument digDoc) throws UGHException {
+        DocStruct boundBook = digDoc.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        addMetadata(boundBook, "pathimagefiles", "file:///tmp/images/");
+        digDoc.setPhysicalDocStruct(boundBook);
+    }
+
+    private void addMetadata(DocStruct docstruct, String type, String value) throws UGHException {
+        Metadata md = new Metadata(prefs.getMetadataTypeByName(type));
+        md.setValue(value);
+        docstruct.addMetadata(md);
+    }
+
+    private void addPerson(DocStruct docstruct, String type) throws UGHException {
+        Person person = new Person(prefs.getMetadataTypeByName(type));
+        person.setFirstname(FIRSTNAMES[random.nextInt(FIRSTNAMES.length)]);
+        person.setLastname(LASTNAMES[random.nextInt(LASTNAMES.length)]);
+        docstruct.addPerson(person);
+    }
+
+    private void addContainedTitle(DocStruct docstruct) throws UGHException {
+        MetadataGroup group = new MetadataGroup(prefs.getMetadataGroupTypeByName("ContainedTitle"));
+        for (Metadata md : group.getMetadataList()) {
+            if ("ConstituentTitle".equals(md.getType().getName())) {
+                md.setValue(createTitle());
+            } else {
+                md.setValue(LASTNAMES[random.nextInt(LASTNAMES.length)]);
+            }
+        }
+        docstruct.addMetadataGroup(group);
+    }
+
+    private String createTitle() {
+        String title = TITLE_PREFIXES[random.nextInt(TITLE_PREFIXES.length)] + createText(4);
+        // some of the imported data contains decomposed characters
+        return random.nextInt(5) == 0 ? Normalizer.normalize(title, Normalizer.Form.NFD) : title;
+    }
+
+    private String createText(int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private String nextIdentifier() {
+        identifierCounter++;
+        return String.format("SYN%08d", identifierCounter);
+    }
+}